@@ -0,0 +1,81 @@
+import dirt.DIRT;
+import dirt.DIRT.State;
+import dirt.PlanningContext;
+import dirt.Vector;
+import dirt.World;
+
+/**
+ * Program that checks that DIRT still reaches its goals in compact mode, where the trajectories it returns are made
+ * again from the rounded ones kept in the tree. Exits with status 1 if any trajectory misses its goal.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1.0
+ */
+public class CompactGoalTest {
+    /**
+     * Solve the same problems with several seeds, with solve() and solveAll(), and check every trajectory's end.
+     * @param args Number of seeds to try (optional, 10 by default)
+     */
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String map =    "##########################\n"
+                      + "#__###_____####__#__###__#\n"
+                      + "#__###__#___###__#__###__#\n"
+                      + "#__###__#____##__#__###__#\n"
+                      + "#__###__#__#__#__#_______#\n"
+                      + "#__###__#__##____#__###__#\n"
+                      + "#__###__#__###___#__###__#\n"
+                      + "#_______#__####_____###__#\n"
+                      + "##########################";
+        World world = World.compile(260, 90, map);
+        State goal = new State(new Vector(0, 1), new Vector(0, -1), new Vector(70, 15));
+        State[] goals = {new State(new Vector(0, 1), new Vector(0, -1), new Vector(20, 15)),
+            new State(new Vector(0, 1), new Vector(0, -1), new Vector(95, 75))};
+        int failures = 0;
+
+        for (long seed = 1; seed <= seeds; seed++) {
+            // One goal
+            DIRT dirt = new DIRT(newRoot(), goal, world, 50000, 7, false, seed);
+            dirt.setCompact(true);
+            failures += check("solve, seed " + seed, dirt.solve(), new PlanningContext(goal, false, world));
+
+            // Several goals
+            dirt = new DIRT(newRoot(), goal, world, 50000, 7, false, seed);
+            dirt.setCompact(true);
+            State[] ends = dirt.solveAll(goals, false);
+
+            for (int g = 0; g < goals.length; g++) {
+                failures += check("solveAll, seed " + seed + ", goal " + g, ends[g],
+                    new PlanningContext(goals[g], false, world));
+            }
+        }
+
+        System.out.println(failures == 0 ? "All trajectories reach their goals" : failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Return the state every run starts from.
+     */
+    private static State newRoot() {
+        return new State(new Vector(0, -1), new Vector(0, 0), new Vector(20, 75));
+    }
+
+    /**
+     * Check that a trajectory reaches its goal, printing it if it doesn't.
+     * @param name What the trajectory is from
+     * @param end The end state of the trajectory (null if none was found)
+     * @param goal The goal it should reach
+     * @return 1 if it fails, 0 otherwise
+     */
+    private static int check(String name, State end, PlanningContext goal) {
+        if (end == null) {
+            System.out.println(name + ": no trajectory found");
+            return 1;
+        } else if (!goal.atGoal(end)) {
+            System.out.println(name + ": trajectory ends at (" + end.position.x + ", " + end.position.y
+                + "), which misses the goal");
+            return 1;
+        }
+        return 0;
+    }
+}
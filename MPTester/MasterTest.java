@@ -9,6 +9,7 @@ import java.util.Iterator;
 import ptspSolver.TreePTSP;
 import dirt.DIRT;
 import dirt.DIRT.State;
+import dirt.World;
 import motionPlanner.PTSPVehicleMotionPlanner.RRT;
 import motionPlanner.PTSPVehicleMotionPlanner.RRT.Vertex;
 
@@ -55,8 +56,8 @@ public class MasterTest {
             // Initialize field variables from file
             parseFile(filename);
 
-            // Get rid of newlines in map for RRT
-            String worldMapRRT = worldMap.replace("\n", "");
+            // Compile the map once for both motion planners
+            World world = World.compile(worldWidth, worldHeight, worldMap);
 
             // Initialize other field variables to 0
             DIRTruntime = 0;
@@ -73,7 +74,7 @@ public class MasterTest {
                 DIRT.goal = new State(null, new dirt.Vector(0, 0), new dirt.Vector(0, 0), new dirt.Vector(coords[1][0], coords[1][1]));
 
                 long startDIRTruntime = System.nanoTime();
-                DIRT motionPlanner = new DIRT(root, worldWidth, worldHeight, worldMap, iterations, edgesPerIteration, fullGoalCheck, seed);
+                DIRT motionPlanner = new DIRT(root, DIRT.goal, world, iterations, edgesPerIteration, fullGoalCheck, seed);
                 long endDIRTruntime = System.nanoTime();
                 DIRTruntime = 1.0 * (endDIRTruntime - startDIRTruntime) / Math.pow(10, 9);
                 DIRTquality = motionPlanner.getLastState().cost;
@@ -95,7 +96,7 @@ public class MasterTest {
                 Vertex goalRRT = new Vertex(null, null, new motionPlanner.PTSPVehicleMotionPlanner.Vector(coords[1][0], coords[1][1]));
                 
                 long startRRTruntime = System.nanoTime();
-                RRT motionPlannerRRT = new RRT(rootRRT, goalRRT, worldWidth, worldHeight, worldMapRRT, seed);
+                RRT motionPlannerRRT = new RRT(rootRRT, goalRRT, world, seed);
                 LinkedList<Vertex> controlsRRT = motionPlannerRRT.generateRRT(iterations);
                 long endRRTruntime = System.nanoTime();
                 RRTruntime = 1.0 * (endRRTruntime - startRRTruntime) / Math.pow(10, 9);
@@ -0,0 +1,302 @@
+package dirt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the hot paths of DIRT: a whole solve, and propagating a control, expanding a state (integrating
+ * every edge candidate or scoring them with motion primitives), checking a point for a collision, selecting a state,
+ * updating dominance regions and pruning on their own. Every fixture is made from a fixed seed, so runs can be compared
+ * with each other. Run it with run_benchmarks.sh (which turns on the GC profiler to report the allocation rate).
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DIRTBenchmark {
+    // Global constants
+    final static long SEED = 8008;
+    final static int SOLVE_ITERATIONS = 2000; // Iterations of each solve() measured
+    final static int GROW_ITERATIONS = 5000; // Iterations used to grow the tree the other benchmarks work on
+    final static int EDGES_PER_ITERATION = 7;
+    final static int SAMPLES = 1024; // Number of precomputed points and controls that the benchmarks cycle through
+
+    /**
+     * The map to run on: the maze from DIRT.main(), randomly generated sparse and dense maps, or a large sparse map.
+     */
+    @Param({"maze", "sparse", "dense", "large"})
+    public String map;
+
+    // Field variables
+    private int worldWidth;
+    private int worldHeight;
+    private String worldMap;
+    private DIRT.State start;
+    private DIRT.State goal;
+    private DIRT dirt; // DIRT with a grown tree
+    private DIRT.State out;
+    private double[] points;
+    private double[][] controls;
+    private double[][] discretized; // Controls from the motion primitive library
+    private MotionPrimitives primitives;
+    private int next;
+
+    /**
+     * Make the map and grow a tree on it.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        makeMap(map);
+        dirt = grow();
+        out = new DIRT.State(new Vector(0, 0), new Vector(0, 0), new Vector(0, 0));
+
+        // Random points and controls to cycle through
+        Random r = new Random(SEED);
+        points = new double[SAMPLES * 2];
+        controls = new double[SAMPLES][];
+        discretized = new double[SAMPLES][];
+        primitives = new MotionPrimitives(World.compile(worldWidth, worldHeight, worldMap));
+
+        for (int i = 0; i < SAMPLES; i++) {
+            points[i * 2] = r.nextDouble() * worldWidth;
+            points[i * 2 + 1] = r.nextDouble() * worldHeight;
+            controls[i] = new double[] {(r.nextInt(3) - 1) * r.nextDouble(), r.nextDouble() / 10,
+                r.nextDouble() / 2 + 0.05};
+            discretized[i] = primitives.randomControl(r);
+        }
+    }
+
+    /**
+     * A whole run of DIRT, from making the planner to returning the trajectory.
+     */
+    @Benchmark
+    public DIRT.State solve() {
+        DIRT d = new DIRT(copy(start), goal, worldWidth, worldHeight, worldMap, SOLVE_ITERATIONS, EDGES_PER_ITERATION,
+            false, SEED);
+        d.setVerbose(false);
+        return d.solve();
+    }
+
+    /**
+     * Apply a control to a state in the tree.
+     */
+    @Benchmark
+    public boolean propagate() {
+        int i = next++ & (SAMPLES - 1);
+        return dirt.propagate(i % dirt.getTreeStore().size(), controls[i], out);
+    }
+
+    /**
+     * Expand a state in the tree with a full set of edge candidates from the motion primitive library, integrating
+     * every one of them (to compare with expandWithLibrary()).
+     */
+    @Benchmark
+    public DIRT.State expandIntegrated() {
+        dirt.setMotionPrimitives(null);
+        return dirt.bestNextState(loadCandidates());
+    }
+
+    /**
+     * Expand a state in the same way, but scoring the edge candidates with the library and only integrating the best.
+     */
+    @Benchmark
+    public DIRT.State expandWithLibrary() {
+        dirt.setMotionPrimitives(primitives);
+        return dirt.bestNextState(loadCandidates());
+    }
+
+    /**
+     * Check a point for a collision.
+     */
+    @Benchmark
+    public boolean posCollision() {
+        int i = next++ & (SAMPLES - 1);
+        return dirt.posCollision(points[i * 2], points[i * 2 + 1]);
+    }
+
+    /**
+     * Select a state to expand.
+     */
+    @Benchmark
+    public int DIRselection() {
+        return dirt.DIRselection();
+    }
+
+    /**
+     * Update the dominance regions around a state in a grown tree (as if it had just been added). This changes the
+     * radii, so the benchmark has a tree of its own, which is put back the way it was after every call.
+     */
+    @Benchmark
+    public void updateDominanceRegions(DominanceFixture fixture) {
+        TreeStore tree = fixture.dirt.getTreeStore();
+        int x = 1 + (fixture.next++ % (tree.size() - 1));
+        fixture.dirt.updateDominanceRegions(tree.parent[x], x);
+    }
+
+    /**
+     * A tree of its own for the dominance region benchmark, along with the radii it was grown with.
+     */
+    @State(Scope.Thread)
+    public static class DominanceFixture {
+        DIRT dirt;
+        double[] radii;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(DIRTBenchmark benchmark) {
+            dirt = benchmark.grow();
+            TreeStore tree = dirt.getTreeStore();
+            radii = new double[tree.size()];
+
+            for (int x = 0; x < radii.length; x++) {
+                radii[x] = tree.radius(x);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void restore() {
+            TreeStore tree = dirt.getTreeStore();
+
+            for (int x = 0; x < radii.length; x++) {
+                if (tree.radius(x) != radii[x]) {
+                    dirt.setRadius(x, radii[x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prune a freshly grown tree one state at a time. Pruning changes the tree, so each measurement iteration gets its
+     * own tree. The first call after growing a tree checks every state in it, so that is done while setting up, and
+     * only the pruning around single states is measured.
+     */
+    @Benchmark
+    public void updateDIRpruning(PruningFixture fixture) {
+        TreeStore tree = fixture.dirt.getTreeStore();
+        int x = 1 + (fixture.next++ % (tree.size() - 1));
+        fixture.dirt.updateDIRpruning(tree.parent[x], x);
+    }
+
+    /**
+     * A tree that is grown again for every measurement iteration, for the pruning benchmark.
+     */
+    @State(Scope.Thread)
+    public static class PruningFixture {
+        DIRT dirt;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(DIRTBenchmark benchmark) {
+            dirt = benchmark.grow();
+            TreeStore tree = dirt.getTreeStore();
+            dirt.updateDIRpruning(tree.parent[1], 1);
+            next = 1;
+        }
+    }
+
+    /**
+     * Give the next state in the tree a fresh set of edge candidates from the motion primitive library.
+     * @return The index of the state
+     */
+    private int loadCandidates() {
+        TreeStore tree = dirt.getTreeStore();
+        int x = next % tree.size();
+        tree.setEcand(x, EDGES_PER_ITERATION);
+
+        for (int k = 0; k < EDGES_PER_ITERATION; k++) {
+            double[] u = discretized[next++ & (SAMPLES - 1)];
+            tree.addEcand(x, u[0], u[1], u[2]);
+        }
+        return x;
+    }
+
+    /**
+     * Grow a tree on the map.
+     * @return DIRT with the grown tree
+     */
+    DIRT grow() {
+        DIRT d = new DIRT(copy(start), goal, worldWidth, worldHeight, worldMap, GROW_ITERATIONS, EDGES_PER_ITERATION,
+            true, SEED);
+        d.setVerbose(false);
+        d.solve();
+        return d;
+    }
+
+    /**
+     * Set up the world, start and goal for the given map.
+     * @param name The name of the map
+     */
+    private void makeMap(String name) {
+        if (name.equals("maze")) {
+            worldWidth = 260;
+            worldHeight = 90;
+            worldMap = "##########################\n"
+                     + "#__###_____####__#__###__#\n"
+                     + "#__###__#___###__#__###__#\n"
+                     + "#__###__#____##__#__###__#\n"
+                     + "#__###__#__#__#__#_______#\n"
+                     + "#__###__#__##____#__###__#\n"
+                     + "#__###__#__###___#__###__#\n"
+                     + "#_______#__####_____###__#\n"
+                     + "##########################";
+            start = new DIRT.State(new Vector(0, -1), new Vector(0, 0), new Vector(20, 75));
+            goal = new DIRT.State(new Vector(0, 1), new Vector(0, -1), new Vector(20, 15));
+        } else if (name.equals("sparse")) {
+            randomMap(40, 30, 0.05);
+        } else if (name.equals("dense")) {
+            randomMap(40, 30, 0.3);
+        } else {
+            randomMap(200, 200, 0.1);
+        }
+    }
+
+    /**
+     * Make a random map with walls around the edge, starting in the top left corner and going to the bottom right.
+     * @param cols The number of cells across
+     * @param rows The number of cells up and down
+     * @param density The chance of each cell being blocked
+     */
+    private void randomMap(int cols, int rows, double density) {
+        int scale = 10;
+        Random r = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                boolean edge = row == 0 || col == 0 || row == rows - 1 || col == cols - 1;
+                boolean nearEnds = (col <= 3 && row <= 3) || (col >= cols - 4 && row >= rows - 4);
+                sb.append(edge || (!nearEnds && r.nextDouble() < density) ? '#' : '_');
+            }
+            if (row < rows - 1) {
+                sb.append('\n');
+            }
+        }
+        worldWidth = cols * scale;
+        worldHeight = rows * scale;
+        worldMap = sb.toString();
+        start = new DIRT.State(new Vector(1, 0), new Vector(0, 0), new Vector(2 * scale, worldHeight - 2 * scale));
+        goal = new DIRT.State(new Vector(1, 0), new Vector(0, 0), new Vector(worldWidth - 2 * scale, 2 * scale));
+    }
+
+    private static DIRT.State copy(DIRT.State x) {
+        return x.copyState();
+    }
+}
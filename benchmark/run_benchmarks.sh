@@ -0,0 +1,17 @@
+#!../../../../../usr/bin/bash
+
+# Run this with "./run_benchmarks.sh [JMH jar directory] [JMH options...]" from the benchmark directory
+# The JMH jar directory needs jmh-core, jmh-generator-annprocess and their dependencies (jopt-simple, commons-math3)
+
+set -e # Stop executing this script if a command fails
+
+# Command line arguments
+JMH_DIR=$1 # Directory with the JMH jars
+shift # Any other arguments are passed on to JMH (Ex. "-p map=maze" to only run on the maze)
+
+CLASSPATH=$(echo $JMH_DIR/*.jar | tr ' ' ':') # Put all of the JMH jars on the classpath
+
+rm -rf classes/ # Start from a clean build
+mkdir -p classes/
+javac -cp $CLASSPATH -d classes/ ../dirt/*.java dirt/DIRTBenchmark.java # Compiles DIRT and the benchmarks (JMH generates its harness here)
+java -cp classes/:$CLASSPATH org.openjdk.jmh.Main DIRTBenchmark -prof gc -rf json -rff results.json "$@" # Runs the benchmarks with the GC profiler for allocation rates
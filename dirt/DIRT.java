@@ -1,12 +1,13 @@
 package dirt;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A motion planner that is way better than RRT.
@@ -14,26 +15,92 @@ import java.util.Scanner;
  * @version 0
  */
 public class DIRT {
+    /**
+     * The orders that states are evicted in once the tree is full (see setMaxStates()). WORST_PATH_QUALITY evicts the
+     * states with the highest path quality (f) first, and SMALLEST_RADIUS evicts the states with the smallest DIRs
+     * first, since they dominate the least space.
+     */
+    public enum Eviction { WORST_PATH_QUALITY, SMALLEST_RADIUS }
+
     // Global constant
     final static double WAYPOINT_RADIUS = 3;
+    final static double INDEX_CELL_SIZE = 10; // Width of the spatial index cells over the tree
+    final static int PARALLEL_MIN_CANDIDATES = 32; // Fewest edge candidates worth propagating in parallel
+    final static int PARALLEL_GRAIN = 8; // Fewest edge candidates each task of the pool propagates
+    final static int EVICTION_FRACTION = 16; // Evict this fraction of the most states allowed at a time (1/16)
+    final static byte LIB_SCORED = 0; // The edge candidate was scored by its motion primitive
+    final static byte LIB_SAFE = 1; // The edge candidate was integrated (and didn't collide)
 
     // Field variables
-    private LinkedList<State> tree;
+    private TreeStore tree; // Every state added to the tree, by index (the root is index 0)
+    private SpatialGrid index; // Spatial index over the positions of the states in the tree
+    private ArrayList<Integer> changedStates; // States whose DIRs changed during the current insertion
+    private ArrayList<Integer> prunedStates; // States pruned since the last insertion, to be reclaimed (if recycling)
+    private int[] hits; // Scratch list for states found by the spatial index
+    private State xProp; // Scratch states for propagating edge candidates
+    private State xBest;
+    private double[] uCand; // Scratch controls for the edge candidate being tried and the best one so far
+    private double[] uBest;
+    private Integrator integrator; // Scratch registers for propagating controls
+    private ForkJoinPool expansionPool; // Pool for propagating edge candidates in parallel (null if not used)
+    private State[] slotStates; // Scratch space for each edge candidate when propagating in parallel
+    private Integrator[] slotIntegrators;
+    private double[][] slotControls;
+    private int[] slotCands; // The number of the edge candidate in each slot
+    private boolean[] slotSafe;
+    private SharedIncumbent incumbent; // Best solution cost shared with other runs (null if not used)
+    private MotionPrimitives primitives; // Library of motion primitives for discretized controls (null if not used)
+    private double[] libQuality; // Scratch space for the path quality of each edge candidate scored by its primitive
+    private byte[] libStatus; // Whether each of those was scored by its primitive or integrated
+    private SolveMetrics metrics; // Where to record timers and counters while solving (null if not used)
+    private boolean trackChanges = false;
+    private boolean recycling = false; // Whether or not the space of pruned states gets reused
+    private boolean prunedOnce = false; // Whether or not the whole tree has been pruned yet
+    private int maxStates = 0; // Most states the tree may hold before some are evicted (0 for no limit)
+    private Eviction eviction = Eviction.WORST_PATH_QUALITY;
+    private long[] evictKeys; // Scratch space for sorting the states that could be evicted
+    private int treeSize = 0; // Number of states in the tree that haven't been pruned
     private ArrayList<int[]> blockedSpaces;
+    private World world;
     private State root;
-    public static State goal;
+    private PlanningContext context; // The goal and world of this run
+    public static State goal; // Goal used by the constructors that don't take one
     private int worldWidth;
     private int worldHeight;
     private int iterations;
     private int edgesPerIteration;
     private int scaleFactor;
     private boolean firstSol = false; //If true, stops after first solution, else keeps going to iteration limit
-    private Random r;
-    private static boolean fullGoalCheck;
+    private boolean verbose = true; // Whether or not to print what solve() is doing
+    private int warmSol = -1; // Solution already in the tree when solve() starts (after retarget())
+    private PlanningContext[] goals; // Goals being solved for together by solveAll() (null when there is just one)
+    private int[] goalBest; // Index of the best state reaching each of those goals (-1 if none has yet)
+    private boolean allReached; // Whether or not every one of those goals has been reached
+    private volatile State bestSolution; // Best trajectory found so far by the current solve (null if none yet)
+    private Random r; // Random numbers for selecting from nearby states
+    private Random sampleRandom; // Random numbers for sampling points (the same as r unless given separate streams)
+    private Random controlRandom; // Random numbers for making controls (the same as r unless given separate streams)
+    private static boolean fullGoalCheck; // Goal check used by State.h() when it isn't given a context
 
     /**
      * Constructor.
      * @param root The starting state of the vehicle
+     * @param goal The goal state
+     * @param world The compiled world (see World.compile())
+     * @param iterations The number of iterations to run the algorithm
+     * @param edgesPerIteration The number of edges to expand per iteration
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     * @param seed The random seed
+     */
+    public DIRT(State root, State goal, World world, int iterations, int edgesPerIteration, boolean fullGoalCheck,
+            long seed) {
+        this(root, goal, world, iterations, edgesPerIteration, fullGoalCheck, new Random(seed));
+    }
+
+    /**
+     * Overloaded constructor (read in the map instead of being given the world).
+     * @param root The starting state of the vehicle
+     * @param goal The goal state
      * @param worldWidth The width of the map
      * @param worldHeight The height of the map
      * @param map A string representation of the map
@@ -42,196 +109,630 @@ public class DIRT {
      * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
      * @param seed The random seed
      */
+    public DIRT(State root, State goal, int worldWidth, int worldHeight, String map, int iterations,
+            int edgesPerIteration, boolean fullGoalCheck, long seed) {
+        this(root, goal, World.compile(worldWidth, worldHeight, map), iterations, edgesPerIteration, fullGoalCheck,
+            new Random(seed));
+    }
+
+    /**
+     * Overloaded constructor (take random numbers from separate streams for sampling, making controls and selecting,
+     * so the run is reproducible no matter what other runs are going on at the same time).
+     * @param root The starting state of the vehicle
+     * @param goal The goal state
+     * @param world The compiled world (see World.compile())
+     * @param iterations The number of iterations to run the algorithm
+     * @param edgesPerIteration The number of edges to expand per iteration
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     * @param streams The random number streams of this run
+     */
+    public DIRT(State root, State goal, World world, int iterations, int edgesPerIteration, boolean fullGoalCheck,
+            RandomStreams streams) {
+        this(root, goal, world, iterations, edgesPerIteration, fullGoalCheck,
+            streams.stream(RandomStreams.Purpose.SELECTION));
+        sampleRandom = streams.stream(RandomStreams.Purpose.SAMPLE);
+        controlRandom = streams.stream(RandomStreams.Purpose.CONTROL);
+    }
+
+    /**
+     * Overloaded constructor (initialize DIRT with random seed instead of specifying it).
+     */
+    public DIRT(State root, State goal, int worldWidth, int worldHeight, String map, int iterations,
+            int edgesPerIteration, boolean fullGoalCheck) {
+        this(root, goal, World.compile(worldWidth, worldHeight, map), iterations, edgesPerIteration, fullGoalCheck,
+            new Random());
+    }
+
+    /**
+     * Overloaded constructor (use the goal in DIRT.goal). The goal is copied when DIRT is made, so changing DIRT.goal
+     * afterwards doesn't affect this run.
+     */
     public DIRT(State root, int worldWidth, int worldHeight, String map, int iterations, int edgesPerIteration, boolean fullGoalCheck, long seed) {
-        tree = new LinkedList<State>();
-        root.parent = null;
-        root.radius = 0;
-        tree.add(root);
-        this.root = root;
-        this.worldWidth = worldWidth;
-        this.worldHeight = worldHeight;
-        blockedSpaces = readMap(map);
-        this.iterations = iterations;
-        this.edgesPerIteration = edgesPerIteration;
+        this(root, DIRT.goal, worldWidth, worldHeight, map, iterations, edgesPerIteration, fullGoalCheck, seed);
         DIRT.fullGoalCheck = fullGoalCheck;
-        r = new Random(seed);
     }
 
     /**
-     * Overloaded constructor (initialize DIRT with random seed instead of specifying it).
+     * Overloaded constructor (use the goal in DIRT.goal, and a random seed).
      */
     public DIRT(State root, int worldWidth, int worldHeight, String map, int iterations, int edgesPerIteration, boolean fullGoalCheck) {
-        tree = new LinkedList<State>();
+        this(root, DIRT.goal, worldWidth, worldHeight, map, iterations, edgesPerIteration, fullGoalCheck);
+        DIRT.fullGoalCheck = fullGoalCheck;
+    }
+
+    /**
+     * Overloaded constructor (use the given random number generator).
+     */
+    private DIRT(State root, State goal, World world, int iterations, int edgesPerIteration, boolean fullGoalCheck,
+            Random r) {
+        setWorld(world);
+        this.iterations = iterations;
+        this.edgesPerIteration = edgesPerIteration;
+        context = new PlanningContext(goal, fullGoalCheck, world);
+        this.r = r;
+        sampleRandom = r;
+        controlRandom = r;
+        initTree(root);
+    }
+
+    /**
+     * Set up the tree with just the root in it.
+     * @param root The starting state of the vehicle
+     */
+    private void initTree(State root) {
+        tree = new TreeStore(Math.min(iterations + 1, 1 << 16));
+        index = new SpatialGrid(worldWidth, worldHeight, INDEX_CELL_SIZE);
+        changedStates = new ArrayList<Integer>();
+        prunedStates = new ArrayList<Integer>();
+        hits = new int[16];
+        xProp = new State(new Vector(0, 0), new Vector(0, 0), new Vector(0, 0));
+        xBest = new State(new Vector(0, 0), new Vector(0, 0), new Vector(0, 0));
+        uCand = new double[3];
+        uBest = new double[3];
+        integrator = new Integrator();
         root.parent = null;
         root.radius = 0;
-        tree.add(root);
         this.root = root;
-        this.worldWidth = worldWidth;
-        this.worldHeight = worldHeight;
-        blockedSpaces = readMap(map);
-        this.iterations = iterations;
-        this.edgesPerIteration = edgesPerIteration;
-        DIRT.fullGoalCheck = fullGoalCheck;
-        r = new Random();
+        addToTree(-1, root);
     }
 
     /**
      * This method reads in the map from the given text file. The map string gets created in the main method, and is
-     * fed into here to find the blocked spaces.
+     * fed into here to find the blocked spaces, which are compiled into the world used for collision checking (or
+     * the world is reused, if the same map has been compiled before).
      * @param map A string containing the map of the world
      * @return An ArrayList of integer arrays, with each array containing the x and y coordinates of the bottom left
      * point of each obstacle
      */
     public ArrayList<int[]> readMap(String map) {
-        blockedSpaces = new ArrayList<>();
-        Scanner sc = new Scanner(map);
-        String line = sc.nextLine();
-        scaleFactor = worldWidth / line.length();
-        int height = worldHeight / scaleFactor;
-        while (height > 0) {
-            for (int i = 0; i < line.length(); i++) {
-                if (line.charAt(i) == '#') {
-                    blockedSpaces.add(new int[] {i, height - 1});
-                }
-            }
-            height--;
-            if (height > 0) {
-                line = sc.nextLine();
-            }
-        }
-        sc.close();
+        setWorld(World.compile(worldWidth, worldHeight, map));
         return blockedSpaces;
     }
 
+    /**
+     * Use the given compiled world for collision checking.
+     * @param world The world
+     */
+    private void setWorld(World world) {
+        this.world = world;
+        worldWidth = world.getWorldWidth();
+        worldHeight = world.getWorldHeight();
+        scaleFactor = world.getScaleFactor();
+        blockedSpaces = world.getBlockedSpaces();
+    }
+
     /**
      * Find the optimal trajectory between the two states.
      * @return The trajectory (end state)
      */
     public State solve() {
-        State sol = null;
-        State xNew = root;
-        State xSel;
+        return solve(0, 0);
+    }
 
-        for (int i = 0; i < iterations; i++) {
+    /**
+     * Overloaded solve (stop once the time budget runs out).
+     * @param timeBudget The time DIRT has, in nanoseconds (0 or less for no limit)
+     * @return The best trajectory found (end state)
+     */
+    public State solve(long timeBudget) {
+        return solve(timeBudget, 0);
+    }
+
+    /**
+     * Find the optimal trajectory between the two states, stopping early once the time budget runs out or a
+     * trajectory at least as good as the target cost is found. The best trajectory so far can be read with
+     * getBestSolution() from another thread while this runs.
+     * @param timeBudget The time DIRT has, in nanoseconds (0 or less for no limit)
+     * @param targetCost The cost that is good enough to stop at (0 or less for none)
+     * @return The best trajectory found (end state)
+     */
+    public State solve(long timeBudget, double targetCost) {
+        long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget : Long.MAX_VALUE;
+        int sol = warmSol;
+        int xNew = 0;
+        int xSel;
+        int i;
+        bestSolution = null;
+        warmSol = -1;
+
+        if (metrics != null) {
+            metrics.begin();
+
+            if (sol != -1) {
+                metrics.solution(0);
+            }
+        }
+
+        for (i = 0; i < iterations; i++) {
+            if (metrics != null) {
+                metrics.lap(SolveMetrics.Phase.OTHER);
+            }
 
             // If firstSol is true, DIRT stops after it finds its first solution
-            if (firstSol && sol != null) {
-                System.out.println("Solution found, stopping loop");
+            if (firstSol && sol != -1) {
+                if (verbose) {
+                    System.out.println("Solution found, stopping loop");
+                }
+                break;
+            }
+
+            // Stop if the solution is good enough
+            if (targetCost > 0 && sol != -1 && tree.cost(sol) <= targetCost) {
+                if (verbose) {
+                    System.out.println("Target cost reached, stopping loop");
+                }
+                break;
+            }
+
+            // Stop if out of time
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+                if (verbose) {
+                    System.out.println("Out of time, stopping loop");
+                }
+                break;
+            }
+
+            // Stop if the group of runs this is part of is out of time
+            if (incumbent != null && incumbent.isExpired()) {
                 break;
             }
+            if (metrics != null) {
+                metrics.iteration(i, treeSize);
+            }
 
             // Select a state
-            if (xNew != null && xNew.parent != null && xNew.heuristicVal < xNew.parent.heuristicVal) {
+            if (xNew != -1 && tree.parent[xNew] != -1 && tree.heuristic(xNew) < tree.heuristic(tree.parent[xNew])) {
                 xSel = xNew;
             } else {
                 xSel = DIRselection();
             }
+            if (metrics != null) {
+                metrics.lap(SolveMetrics.Phase.SELECTION);
+            }
 
             // If there are no edge candidates, blossom from the state to find some
-            if (xSel.Ecand.size() == 0) {
+            if (tree.ecandCount(xSel) == 0) {
                 blossom(xSel); // Chooses edge candidates (Ecand) of the state
             }
+            if (metrics != null) {
+                metrics.lap(SolveMetrics.Phase.BLOSSOM);
+            }
 
             // While there are edge candidates left, extend the tree
-            while (xSel.Ecand.size() > 0) {
+            while (tree.ecandCount(xSel) > 0) {
                 // Find the best state to go to from xSel (uses the shortest controls)
-                xNew = bestNextState(xSel);
+                State xNext = bestNextState(xSel);
+
+                if (metrics != null) {
+                    metrics.lap(SolveMetrics.Phase.PROPAGATION);
+                }
 
-                // If the state would not make the solution worse, add it to the tree
-                if (xNew != null && (sol == null || xNew.pathQuality <= sol.cost)) {
+                // If the state would not make the solution (or the best solution of any run sharing the incumbent)
+                // worse, add it to the tree
+                double bound = bestKnownCost(sol);
+                if (xNext != null && (bound == Double.POSITIVE_INFINITY || xNext.pathQuality <= bound)) {
                     // Extend the tree with xNew
-                    tree.add(xNew);
-                    xNew.parent = xSel;
+                    xNew = addToTree(xSel, xNext);
 
                     // Update the DIRs (size of the radii) of all the states in the tree that
                     // are up to the same distance away from xNew as xNew is from its parent, xSel
-                    if (sol != null) {
+                    if (sol != -1) {
                         updateDIRpruning(xSel, xNew);
                     } else {
                         updateDominanceRegions(xSel, xNew);
+
+                        if (metrics != null) {
+                            metrics.lap(SolveMetrics.Phase.DOMINANCE);
+                        }
                     }
                     // If the cost of the trajectory ending in xNew is less than the solution cost,
                     // update the solution
-                    if (xNew.heuristicVal == 0 && (sol == null || xNew.cost < sol.cost)) {
+                    int oldSol = sol;
+
+                    if (goals != null) {
+                        sol = recordGoals(xNew, xNext, sol);
+                    } else if (tree.heuristic(xNew) == 0 && (sol == -1 || tree.cost(xNew) < tree.cost(sol))) {
+                        // The old solution can be evicted like any other state now
+                        if (sol != -1) {
+                            tree.clearFlag(sol, TreeStore.PINNED);
+                        }
                         sol = xNew;
-                        System.out.println("Solution found! Total time: " + sol.cost);
+                        tree.setFlag(sol, TreeStore.PINNED);
+                        bestSolution = tree.materialize(sol, root);
+                        if (verbose) {
+                            System.out.println("Solution found! Total time: " + tree.cost(sol));
+                        }
+
+                        if (incumbent != null) {
+                            incumbent.offer(tree.cost(sol));
+                        }
+                    }
+                    if (metrics != null && sol != oldSol) {
+                        metrics.solution(i);
                     }
                     
                     break;
                 } else {
-                    xNew = null;
+                    xNew = -1;
                 }
             }
         }
 
-        // Display if no solution was found
-        if (sol == null) {
-            System.out.println("No trajectory found.");
+        if (metrics != null) {
+            metrics.lap(SolveMetrics.Phase.OTHER);
+            metrics.end(i, treeSize);
         }
 
-        // Print out size of tree
-        System.out.println("Tree size: " + tree.size());
+        if (verbose) {
+            // Display if no solution was found
+            if (sol == -1) {
+                System.out.println("No trajectory found.");
+            }
 
-        // Returns the solution state
-        return sol;
+            // Print out size of tree
+            System.out.println("Tree size: " + treeSize);
+        }
+
+        // Returns the solution state (made again, so its states have their final radii)
+        if (sol != -1) {
+            bestSolution = trajectory(sol, goalOf(sol));
+        }
+        return bestSolution;
     }
 
     /**
-     * Return a random state.
-     * @return A state
+     * Find trajectories to several goals at once by growing a single tree. States are scored by their heuristic to
+     * the nearest goal that hasn't been reached yet (or to the nearest goal at all, once every goal has been reached),
+     * and the best state reaching each goal is kept. The tree only starts pruning against a solution cost once every
+     * goal has been reached, and then it uses the cost of the worst of them.
+     * @param goalStates The goal states
+     * @param fullGoalCheck Whether to check velocity and direction of the goal states or not
+     * @param timeBudget The time DIRT has, in nanoseconds (0 or less for no limit)
+     * @return The best trajectory (end state) to each goal, in the same order, with null for goals never reached
      */
-    private State DIRselection() {
-        LinkedList<State> Xcand = new LinkedList<State>();
-        Iterator<State> it = tree.iterator();
-        State x;
+    public State[] solveAll(State[] goalStates, boolean fullGoalCheck, long timeBudget) {
+        goals = new PlanningContext[goalStates.length];
+        goalBest = new int[goalStates.length];
+        allReached = false;
+
+        for (int g = 0; g < goals.length; g++) {
+            goals[g] = new PlanningContext(goalStates[g], fullGoalCheck, world, context.isObstacleAware());
+            goalBest[g] = -1;
+        }
 
-        // Choose a random point
-        Vector xRand = randomSample();
+        // Score the tree for the goals (some of its states may already reach them)
+        for (int x : tree.order()) {
+            if (x != 0 && !tree.isPruned(x)) {
+                load(x, xProp);
+                recordGoals(x, xProp, -1);
+            }
+        }
+        rescore();
+        warmSol = worstGoal();
+        solve(timeBudget, 0);
 
-        // Find all the states in the tree that are nearby that point
-        while (it.hasNext()) {
-            x = (State) it.next();
+        // Make the trajectories
+        State[] solutions = new State[goals.length];
 
-            if (x.inDIR(xRand)) {
-                Xcand.add(x);
+        for (int g = 0; g < goals.length; g++) {
+            if (goalBest[g] != -1) {
+                solutions[g] = trajectory(goalBest[g], goals[g]);
             }
         }
+        goals = null;
+        goalBest = null;
+        return solutions;
+    }
 
-        // If there aren't any nearby states (the point is in an unexplored region), choose the state
-        // in the tree that is closest to the point and find all tree states nearby that instead
-        if (Xcand.size() == 0) {
-            Vector xClosest = null;
-            double shortestDis = Double.MAX_VALUE;
-            double dis;
+    /**
+     * Overloaded solveAll (no time limit).
+     */
+    public State[] solveAll(State[] goalStates, boolean fullGoalCheck) {
+        return solveAll(goalStates, fullGoalCheck, 0);
+    }
+
+    /**
+     * Check which of the goals of solveAll() a new state reaches, and keep it for the ones it is the best for.
+     * @param x The index of the state in the tree
+     * @param state The state itself
+     * @param sol The index of the current solution (see worstGoal())
+     * @return The index of the new solution
+     */
+    private int recordGoals(int x, State state, int sol) {
+        boolean improved = false;
+        boolean newGoal = false;
+
+        for (int g = 0; g < goals.length; g++) {
+            if (goals[g].atGoal(state) && (goalBest[g] == -1 || tree.cost(x) < tree.cost(goalBest[g]))) {
+                int old = goalBest[g];
+                newGoal |= old == -1;
+                goalBest[g] = x;
+                tree.setFlag(x, TreeStore.PINNED);
+                improved = true;
+
+                // The state it replaces can be evicted now, unless it is still the best for another goal
+                if (old != -1 && !isGoalBest(old)) {
+                    tree.clearFlag(old, TreeStore.PINNED);
+                }
+            }
+        }
+        if (!improved) {
+            return sol;
+        }
 
-            // Find the closest tree state to the point
-            it = tree.iterator();
+        // The nearest unreached goal changed, so the heuristic of every state did too
+        if (newGoal) {
+            rescore();
+        }
+        int worst = worstGoal();
 
-            while (it.hasNext()) {
-                x = (State) it.next();
-                dis = distance(xRand.x, xRand.y, x.position.x, x.position.y);
+        if (worst != -1) {
+            bestSolution = tree.materialize(worst, root);
+            if (verbose) {
+                System.out.println("Solution found! Total time: " + tree.cost(worst));
+            }
 
-                if (dis < shortestDis) {
-                    shortestDis = dis;
-                    xClosest = new Vector(x.position.x, x.position.y);
-                }
+            if (incumbent != null) {
+                incumbent.offer(tree.cost(worst));
             }
+        }
+        return worst;
+    }
 
-            // Find all tree states nearby that state
-            it = tree.iterator();
+    /**
+     * Returns whether or not a state is the best one reaching any of the goals of solveAll().
+     * @param x The index of the state in the tree
+     * @return Boolean
+     */
+    private boolean isGoalBest(int x) {
+        for (int g = 0; g < goals.length; g++) {
+            if (goalBest[g] == x) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            while (it.hasNext()) {
-                x = (State) it.next();
-    
-                if (x.inDIR(xClosest)) {
-                    Xcand.add(x);
+    /**
+     * Return the goal a solution reaches: the goal of this run, or the goal of solveAll() it is the best state for.
+     * @param x The index of the state in the tree
+     * @return The goal
+     */
+    private PlanningContext goalOf(int x) {
+        if (goals != null) {
+            for (int g = 0; g < goals.length; g++) {
+                if (goalBest[g] == x) {
+                    return goals[g];
                 }
             }
         }
+        return context;
+    }
+
+    /**
+     * Return the most expensive of the best states reaching each goal of solveAll(), which is the solution cost the
+     * tree prunes against.
+     * @return The index of the state, or -1 if some goal hasn't been reached yet
+     */
+    private int worstGoal() {
+        int worst = -1;
+
+        for (int g = 0; g < goals.length; g++) {
+            if (goalBest[g] == -1) {
+                return -1;
+            } else if (worst == -1 || tree.cost(goalBest[g]) > tree.cost(worst)) {
+                worst = goalBest[g];
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Work out the heuristic value of every state in the tree again for the goals of solveAll().
+     */
+    private void rescore() {
+        allReached = true;
+
+        for (int g = 0; g < goals.length; g++) {
+            allReached &= goalBest[g] != -1;
+        }
+        for (int x = 0; x < tree.size(); x++) {
+            if (!tree.isFree(x)) {
+                load(x, xProp);
+                tree.setHeuristic(x, heuristic(xProp));
+            }
+        }
+    }
+
+    /**
+     * Return the heuristic value of a state: the estimated time to the goal, or to the nearest goal that hasn't been
+     * reached yet when solving for several goals (see solveAll()).
+     * @param x The state
+     * @return The estimated time
+     */
+    private double heuristic(State x) {
+        if (goals == null) {
+            return x.h(context);
+        }
+        double best = Double.POSITIVE_INFINITY;
+
+        for (int g = 0; g < goals.length; g++) {
+            if (allReached || goalBest[g] == -1) {
+                best = Math.min(best, goals[g].h(x));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Make the trajectory ending in a state in the tree. In compact mode, the trajectory is made again from the root
+     * in full precision, by applying the controls of its states in turn (see resimulate()). The state in the tree was
+     * only checked against the goal as it was rounded, so if the trajectory made again ends up just short of the goal,
+     * the trajectory from the tree is returned as it is.
+     * @param x The index of the state
+     * @param goal The goal the state reaches
+     * @return The trajectory (end state)
+     */
+    private State trajectory(int x, PlanningContext goal) {
+        State end = tree.materialize(x, root);
+
+        if (tree.isCompact()) {
+            State exact = resimulate(end);
+
+            if (goal.atGoal(exact)) {
+                return exact;
+            }
+            if (verbose) {
+                System.out.println("Trajectory made again misses the goal, keeping the one from the tree");
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Apply the controls of a trajectory to the root again in full precision, since the states the tree kept in
+     * compact mode were rounded to floats (and each one was propagated from its rounded parent). The DIR radii and
+     * expanded flags are kept from the tree. If the trajectory made again collides, which it can only do by a rounding
+     * error's width, the trajectory from the tree is returned as it is.
+     * @param end The end state of the trajectory
+     * @return The end state of the trajectory made again
+     */
+    private State resimulate(State end) {
+        LinkedList<State> traj = new LinkedList<>();
+
+        for (State x = end; x.parent != null; x = x.parent) {
+            traj.addFirst(x);
+        }
+        State x = root;
+
+        for (State stored : traj) {
+            x = propagate(x, stored.controls);
+
+            if (x == null) {
+                return end;
+            }
+            x.radius = stored.radius;
+            x.expanded = stored.expanded;
+        }
+        return x;
+    }
+
+    /**
+     * Copy a state in the tree into the given State.
+     * @param x The index of the state
+     * @param out The State to write to
+     */
+    private void load(int x, State out) {
+        out.direction.x = tree.dirX(x);
+        out.direction.y = tree.dirY(x);
+        out.velocity.x = tree.velX(x);
+        out.velocity.y = tree.velY(x);
+        out.position.x = tree.posX(x);
+        out.position.y = tree.posY(x);
+    }
+
+    /**
+     * Point the tree at a new goal, so that the next solve() carries on growing it instead of starting from scratch.
+     * Every state in the tree is kept (including pruned ones that haven't been reclaimed, since they may be useful for
+     * the new goal), its heuristic value is worked out again for the new goal, and the dominance regions are rebuilt
+     * in the order the states were added, as if the tree had been grown for the new goal from the start. States that
+     * already reach the new goal count as a solution, and the solutions to the old goal stop being kept from
+     * eviction. States that were already reclaimed (see setRecycling() and setMaxStates()) can't be brought back.
+     * @param goal The new goal state
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     */
+    public void retarget(State goal, boolean fullGoalCheck) {
+        context = new PlanningContext(goal, fullGoalCheck, world, context.isObstacleAware());
+        index = new SpatialGrid(worldWidth, worldHeight, INDEX_CELL_SIZE);
+        prunedOnce = false;
+        treeSize = 0;
+        warmSol = -1;
+        prunedStates.clear();
+
+        boolean serials = recycling || !tree.isInOrder();
+
+        for (int x : tree.order()) {
+            // Score the state for the new goal
+            load(x, xProp);
+            tree.setHeuristic(x, xProp.h(context));
+            tree.clearFlag(x, (byte) (TreeStore.PRUNED | TreeStore.PINNED));
+
+            // Put it back in the index and give it its dominance region
+            tree.setRadius(x, 0);
+            index.insert(x, tree.posX(x), tree.posY(x), 0);
+            treeSize++;
+
+            if (serials) {
+                index.setSerial(x, tree.serial[x]);
+            }
+
+            if (tree.parent[x] != -1) {
+                updateDominanceRegions(tree.parent[x], x);
+            }
+            if (x != 0 && tree.heuristic(x) == 0 && (warmSol == -1 || tree.cost(x) < tree.cost(warmSol))) {
+                warmSol = x;
+            }
+        }
+        if (warmSol != -1) {
+            tree.setFlag(warmSol, TreeStore.PINNED);
+        }
+    }
+
+    /**
+     * Return the cost of the best solution known to this run (its own, or one shared by another run).
+     * @param sol The index of this run's solution (-1 if there isn't one yet)
+     * @return The cost (infinity if there is no solution yet)
+     */
+    private double bestKnownCost(int sol) {
+        double cost = sol == -1 ? Double.POSITIVE_INFINITY : tree.cost(sol);
+
+        if (incumbent != null) {
+            cost = Math.min(cost, incumbent.getCost());
+        }
+        return cost;
+    }
+
+    /**
+     * Return a random state.
+     * @return The index of the state
+     */
+    int DIRselection() {
+        // Choose a random point
+        Vector xRand = randomSample();
+
+        // Find all the states in the tree that are nearby that point
+        int found = index.queryContaining(xRand.x, xRand.y);
+
+        // If there aren't any nearby states (the point is in an unexplored region), choose the state
+        // in the tree that is closest to the point and find all tree states nearby that instead
+        if (found == 0) {
+            int xClosest = index.nearest(xRand.x, xRand.y);
+            found = index.queryContaining(tree.posX(xClosest), tree.posY(xClosest));
+        }
 
         // Randomly choose one of the nearby states and return it
-        int randIndex = r.nextInt(Xcand.size());
-        return Xcand.get(randIndex);
+        int randIndex = r.nextInt(found);
+        return index.getHit(randIndex);
     }
 
     /**
@@ -242,18 +743,19 @@ public class DIRT {
         double x, y;
 
         // Random chance of returning the goal as the sample state
-        if (r.nextInt(100) <= 5) {
-            return new Vector(goal.position.x, goal.position.y);
+        if (sampleRandom.nextInt(100) <= 5) {
+            PlanningContext g = goals == null ? context : goals[sampleRandom.nextInt(goals.length)];
+            return new Vector(g.getGoalX(), g.getGoalY());
         }
 
         // Get initial random values for x and y
-        x = r.nextDouble() * worldWidth;
-        y = r.nextDouble() * worldHeight;
+        x = sampleRandom.nextDouble() * worldWidth;
+        y = sampleRandom.nextDouble() * worldHeight;
 
         // Re-roll those values until the point isn't in an obstacle
         while (posCollision(x, y)) {
-            x = r.nextDouble() * worldWidth;
-            y = r.nextDouble() * worldHeight;
+            x = sampleRandom.nextDouble() * worldWidth;
+            y = sampleRandom.nextDouble() * worldHeight;
         }
 
         return new Vector(x, y);
@@ -261,78 +763,431 @@ public class DIRT {
 
     /**
      * Updates the radius (AKA dominance region) of all of the States in the tree.
-     * @param tree the tree
      * @param xSelected xNew's parent State
      * @param xNew the State being assigned a radius
      */
-    public void updateDominanceRegions(State xSelected, State xNew) {
-        LinkedList<State> xUp = new LinkedList<>();
-        Iterator<State> iTree = tree.iterator(); 
-        double distance = xSelected.distPoints(xNew);
-        // Goes through the tree and adds a State to xUp if the distance is less than the distance between 
+    void updateDominanceRegions(int xSelected, int xNew) {
+        double distance = tree.distance(xSelected, xNew);
+        // Finds the States in the tree whose distance to xNew is no more than the distance between
         // xNew and its parent State xSelected
-        while (iTree.hasNext()) { 
-            State x = (State) iTree.next();
-            if (x.distPoints(xNew) <= distance) {
-                xUp.add(x); 
-            }
-        }
-        // Updates the radii of the DIRs of all the x in xUp if they have a greater path cost than xNew to be smaller,
+        int found = index.queryRadius(tree.posX(xNew), tree.posY(xNew), distance);
+        // Updates the radii of the DIRs of all of those States if they have a greater path cost than xNew to be smaller,
         // as well as finding the maximum possible radius of xNew's DIR
-        Iterator<State> ixUp = xUp.iterator();
         double maxDT = 0;
-        while (ixUp.hasNext()) {
-            State x = (State) ixUp.next();
-            if (x.pathQuality > xNew.pathQuality) {
-                x.radius = x.distPoints(xNew);
-                if (xNew.distPoints(x) > maxDT) {
-                    maxDT = xNew.distPoints(x);
+        double quality = tree.pathQuality(xNew);
+        for (int i = 0; i < found; i++) {
+            int x = index.getHit(i);
+            if (tree.pathQuality(x) > quality) {
+                setRadius(x, tree.distance(x, xNew));
+                if (tree.distance(xNew, x) > maxDT) {
+                    maxDT = tree.distance(xNew, x);
                 }
             }
         }
         // Sets the radius of xNew's DIR to whatever maximum value it found in the above loop
-        xNew.radius = maxDT;
-        if (maxDT > root.radius) {
-            root.radius = maxDT;
+        setRadius(xNew, maxDT);
+        if (maxDT > tree.radius(0)) {
+            setRadius(0, maxDT);
+        }
+    }
+
+    /**
+     * Add a state to the tree and the spatial index.
+     * @param parent The index of the state's parent (-1 for the root)
+     * @param x The state to add
+     * @return The index of the state in the tree
+     */
+    private int addToTree(int parent, State x) {
+        int i = tree.add(parent, x.direction.x, x.direction.y, x.velocity.x, x.velocity.y, x.position.x,
+            x.position.y, x.cost, x.heuristicVal, x.controls);
+        tree.setRadius(i, x.radius);
+        index.insert(i, tree.posX(i), tree.posY(i), tree.radius(i)); // As stored (rounded in compact mode)
+        treeSize++;
+
+        // Reclaim the states pruned since the last insertion (only now, since the state being extended may have been
+        // one of them and the solution has been pinned by now)
+        if (index.hasSerials()) {
+            index.setSerial(i, tree.serial[i]);
+        }
+        if (recycling) {
+            for (int j = 0; j < prunedStates.size(); j++) {
+                tree.reclaim(prunedStates.get(j));
+            }
+            prunedStates.clear();
+        }
+
+        // Make room for the next states if the tree is full
+        if (maxStates > 0 && tree.count() >= maxStates) {
+            evict(i);
+        }
+        return i;
+    }
+
+    /**
+     * Evict a batch of leaf states from the tree, in the order given by the eviction policy (see setMaxStates()). Each
+     * one is pruned and its space is reclaimed straight away, along with any pruned ancestors that it leaves without
+     * states below them. Only leaves are evicted, so the ancestors of every state left in the tree stay, and pinned
+     * states (the solutions) are never evicted.
+     * @param keep The index of a leaf to leave alone (the state that was just added)
+     */
+    private void evict(int keep) {
+        if (evictKeys == null || evictKeys.length < tree.size()) {
+            evictKeys = new long[tree.size()];
+        }
+        int n = 0;
+
+        // Sort the leaves by how much they are worth keeping. The worth is rounded to a float and its bits are flipped
+        // so that they sort in the same order as the worth, with the index below
+        for (int x = 1; x < tree.size(); x++) {
+            if (x != keep && tree.isLeaf(x) && !tree.isPruned(x) && !tree.isPinned(x)) {
+                double worth = eviction == Eviction.SMALLEST_RADIUS ? tree.radius(x) : -tree.pathQuality(x);
+                int bits = Float.floatToIntBits((float) worth);
+                bits ^= (bits >> 31) & Integer.MAX_VALUE;
+                evictKeys[n++] = ((long) bits << 32) | x;
+            }
+        }
+        Arrays.sort(evictKeys, 0, n);
+
+        // Then evict the least worth keeping
+        int batch = Math.min(n, Math.max(1, maxStates / EVICTION_FRACTION));
+
+        // Only the leaves that tie with the last one evicted can go either way. Break the tie by the order they were
+        // added in rather than by index, since indices get reused
+        if (batch > 0 && batch < n && evictKeys[batch - 1] >>> 32 == evictKeys[batch] >>> 32) {
+            long worth = evictKeys[batch - 1] >>> 32;
+            int lo = batch - 1;
+            int hi = batch + 1;
+
+            while (lo > 0 && evictKeys[lo - 1] >>> 32 == worth) {
+                lo--;
+            }
+            while (hi < n && evictKeys[hi] >>> 32 == worth) {
+                hi++;
+            }
+            for (int k = lo; k < hi; k++) {
+                int x = (int) evictKeys[k];
+                evictKeys[k] = ((long) tree.serial[x] << 32) | x;
+            }
+            Arrays.sort(evictKeys, lo, hi);
+        }
+
+        for (int k = 0; k < batch; k++) {
+            int x = (int) evictKeys[k];
+            tree.setFlag(x, TreeStore.PRUNED);
+            index.remove(x);
+            treeSize--;
+            tree.reclaim(x);
+
+            if (metrics != null) {
+                metrics.evicted();
+            }
+        }
+    }
+
+    /**
+     * Set the DIR radius of a state in the tree, keeping the spatial index up to date.
+     * @param x The index of the state
+     * @param radius The new radius
+     */
+    void setRadius(int x, double radius) {
+        tree.setRadius(x, radius);
+        index.setRadius(x, tree.radius(x));
+
+        if (trackChanges) {
+            changedStates.add(x);
         }
     }
 
-    private State bestNextState(State xSelected) {
-        double[] uBest = null;
-        State xBest = null;
-        Iterator<double[]> iControls = xSelected.Ecand.iterator();
-        while (iControls.hasNext()) {
-            double[] u = iControls.next();
-            State xProp = propagate(xSelected, u);
-            if (xProp != null) {
-               if (xBest == null || xProp.pathQuality < xBest.pathQuality) {
+    /**
+     * Propagate every edge candidate of a state and return the best resulting state (which is then removed from the
+     * edge candidates). The returned State is scratch space that gets reused by the next call.
+     * @param xSelected The index of the state to extend
+     * @return The best next state, or null if every edge candidate collided
+     */
+    State bestNextState(int xSelected) {
+        if (primitives != null) {
+            return bestNextStateFromLibrary(xSelected);
+        }
+        if (expansionPool != null && tree.ecandCount(xSelected) >= PARALLEL_MIN_CANDIDATES) {
+            return bestNextStateParallel(xSelected);
+        }
+        int best = -1;
+        int slots = tree.ecandSlots(xSelected);
+        for (int k = 0; k < slots; k++) {
+            if (!tree.hasEcand(xSelected, k)) {
+                continue;
+            }
+            tree.getEcand(xSelected, k, uCand);
+            boolean safe = propagate(xSelected, uCand, xProp);
+            if (metrics != null) {
+                metrics.propagated(safe);
+            }
+            if (safe) {
+               if (best == -1 || xProp.pathQuality < xBest.pathQuality) {
+                   State swap = xBest;
                    xBest = xProp;
-                   uBest = u;
+                   xProp = swap;
+                   best = k;
                 }
             }
         }
-        if (xBest != null) {
-            xBest.controls = uBest; // Might need to clear Ecand for xBest, probable spot for bugs
-            xSelected.Ecand.remove(uBest);
-            xBest.Ecand.clear();
+        if (best != -1) {
+            tree.getEcand(xSelected, best, uBest);
+            xBest.controls = uBest;
+            tree.removeEcand(xSelected, best);
+            return xBest;
         } else {
-            xSelected.Ecand.clear();
+            tree.clearEcand(xSelected);
+            return null;
+        }
+    }
+
+    /**
+     * Like bestNextState(), but the edge candidates are propagated at the same time on the expansion pool, in one batch
+     * of candidates per worker. Each candidate gets its own slot (State and Integrator) to write into, and the best one
+     * is then picked in order with ties going to the earlier candidate, so the result is the same as propagating them
+     * one at a time.
+     * @param xSelected The index of the state to extend
+     * @return The best next state, or null if every edge candidate collided
+     */
+    private State bestNextStateParallel(int xSelected) {
+        int n = tree.ecandCount(xSelected);
+
+        // Make sure there are enough slots for every candidate
+        if (slotStates == null || slotStates.length < n) {
+            slotStates = new State[n];
+            slotIntegrators = new Integrator[n];
+            slotControls = new double[n][3];
+            slotCands = new int[n];
+            slotSafe = new boolean[n];
+
+            for (int i = 0; i < n; i++) {
+                slotStates[i] = new State(new Vector(0, 0), new Vector(0, 0), new Vector(0, 0));
+                slotIntegrators[i] = new Integrator();
+            }
         }
+
+        // Copy the candidates that are left into the slots, in order
+        int slot = 0;
+        for (int k = 0; k < tree.ecandSlots(xSelected); k++) {
+            if (tree.hasEcand(xSelected, k)) {
+                tree.getEcand(xSelected, k, slotControls[slot]);
+                slotCands[slot++] = k;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            slotIntegrators[i].copySettings(integrator);
+        }
+
+        // Propagate them in one batch per worker
+        int grain = Math.max(PARALLEL_GRAIN, (n + expansionPool.getParallelism() - 1) / expansionPool.getParallelism());
+        expansionPool.invoke(new PropagateTask(xSelected, 0, n, grain));
+
+        // Then pick the best one in order
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            if (metrics != null) {
+                metrics.propagated(slotSafe[i]);
+            }
+            if (slotSafe[i] && (best == -1 || slotStates[i].pathQuality < slotStates[best].pathQuality)) {
+                best = i;
+            }
+        }
+        if (best == -1) {
+            tree.clearEcand(xSelected);
+            return null;
+        }
+        State swap = xBest;
+        xBest = slotStates[best];
+        slotStates[best] = swap;
+        tree.getEcand(xSelected, slotCands[best], uBest);
+        xBest.controls = uBest;
+        tree.removeEcand(xSelected, slotCands[best]);
         return xBest;
     }
 
-    private State propagate(State xSelected, double[] u) {
-        State xCopy = xSelected.copyState();
-        for (double i = 0; i < u[2]; i += 0.05) {
-            xCopy.updateDirectionVec(xCopy.direction, u[0]);
-            xCopy.updateVelocityVec(xCopy.velocity, xCopy.direction, u[1]);
-            xCopy.updatePositionVec(xCopy.position, xCopy.velocity);
-            if (posCollision(xCopy.position.x, xCopy.position.y)) {
-                return null;
+    /**
+     * Propagates a range of the edge candidate slots for bestNextStateParallel(), splitting it in two on the pool until
+     * each part is no bigger than the grain.
+     */
+    private class PropagateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int xSelected;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        PropagateTask(int xSelected, int from, int to, int grain) {
+            this.xSelected = xSelected;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    slotSafe[i] = propagate(xSelected, slotControls[i], slotStates[i], slotIntegrators[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new PropagateTask(xSelected, from, mid, grain), new PropagateTask(xSelected, mid, to, grain));
+            }
+        }
+    }
+
+    /**
+     * Like bestNextState(), but the edge candidates are scored with their motion primitives (turned to xSelected's
+     * direction and moved to where it is) instead of being integrated, and only the best one is integrated, to make
+     * the state that goes into the tree exactly the same as stepping would. It is only checked for collisions on the
+     * way if its footprint isn't clear, and if it turns out to collide, the next best one is tried, so the result is
+     * the same as integrating every candidate (up to rounding). Candidates that the primitives can't score (the
+     * velocity cap could kick in) are integrated straight away.
+     * @param xSelected The index of the state to extend
+     * @return The best next state, or null if every edge candidate collided
+     */
+    private State bestNextStateFromLibrary(int xSelected) {
+        double dx = tree.dirX(xSelected);
+        double dy = tree.dirY(xSelected);
+        double vx = tree.velX(xSelected);
+        double vy = tree.velY(xSelected);
+        double px = tree.posX(xSelected);
+        double py = tree.posY(xSelected);
+        int slots = tree.ecandSlots(xSelected);
+
+        if (libQuality == null || libQuality.length < slots) {
+            libQuality = new double[Math.max(slots, 16)];
+            libStatus = new byte[libQuality.length];
+        }
+
+        // Score every candidate
+        for (int k = 0; k < slots; k++) {
+            if (!tree.hasEcand(xSelected, k)) {
+                continue;
+            }
+            tree.getEcand(xSelected, k, uCand);
+
+            if (primitives.apply(uCand, dx, dy, vx, vy, px, py, xProp)) {
+                // Every way of checking a trajectory checks where it ends, so one that ends in a wall is out already
+                if (world.posCollision(xProp.position.x, xProp.position.y)) {
+                    if (metrics != null) {
+                        metrics.propagated(false);
+                    }
+                    tree.removeEcand(xSelected, k);
+                    continue;
+                }
+                libStatus[k] = LIB_SCORED;
+                libQuality[k] = tree.cost(xSelected) + uCand[2] + heuristic(xProp);
+            } else {
+                boolean safe = propagate(xSelected, uCand, xProp);
+
+                if (metrics != null) {
+                    metrics.propagated(safe);
+                }
+                if (!safe) {
+                    tree.removeEcand(xSelected, k);
+                    continue;
+                }
+                libStatus[k] = LIB_SAFE;
+                libQuality[k] = xProp.pathQuality;
             }
         }
+
+        // Then integrate the best one (ties going to the earlier candidate), until one doesn't collide
+        while (tree.ecandCount(xSelected) > 0) {
+            int best = -1;
+
+            for (int k = 0; k < slots; k++) {
+                if (tree.hasEcand(xSelected, k) && (best == -1 || libQuality[k] < libQuality[best])) {
+                    best = k;
+                }
+            }
+            tree.getEcand(xSelected, best, uBest);
+            tree.removeEcand(xSelected, best);
+            integrator.load(dx, dy, vx, vy, px, py);
+
+            // Candidates that were integrated already, or are sure not to collide, don't need checking
+            if (libStatus[best] == LIB_SAFE) {
+                integrator.advance(uBest);
+            } else if (primitives.isClear(uBest, world, dx, dy, vx, vy, px, py)) {
+                integrator.advance(uBest);
+
+                if (metrics != null) {
+                    metrics.propagated(true);
+                }
+            } else {
+                boolean safe = integrator.propagate(world, uBest);
+
+                if (metrics != null) {
+                    metrics.propagated(safe);
+                }
+                if (!safe) {
+                    continue;
+                }
+            }
+            // Score the integrated state itself, since the primitive's end state is only the same up to rounding
+            integrator.store(xBest);
+            xBest.cost = tree.cost(xSelected) + uBest[2];
+            xBest.heuristicVal = heuristic(xBest);
+            xBest.pathQuality = xBest.cost + xBest.heuristicVal;
+            xBest.radius = 0;
+            xBest.controls = uBest;
+            return xBest;
+        }
+        tree.clearEcand(xSelected);
+        return null;
+    }
+
+    /**
+     * Apply a control to a state in the tree, writing the result into the given State.
+     * @param xSelected The index of the state to start from
+     * @param u The control
+     * @param out The State to write the result into
+     * @return Whether or not the control avoided collisions
+     */
+    boolean propagate(int xSelected, double[] u, State out) {
+        return propagate(xSelected, u, out, integrator);
+    }
+
+    /**
+     * Apply a control to a state in the tree using the given integrator, writing the result into the given State.
+     * @param xSelected The index of the state to start from
+     * @param u The control
+     * @param out The State to write the result into
+     * @param integrator The integrator to use
+     * @return Whether or not the control avoided collisions
+     */
+    private boolean propagate(int xSelected, double[] u, State out, Integrator integrator) {
+        integrator.load(tree.dirX(xSelected), tree.dirY(xSelected), tree.velX(xSelected), tree.velY(xSelected),
+            tree.posX(xSelected), tree.posY(xSelected));
+        if (!integrator.propagate(world, u)) {
+            return false;
+        }
+        integrator.store(out);
+        out.cost = tree.cost(xSelected) + u[2];
+        out.heuristicVal = heuristic(out);
+        out.pathQuality = out.cost + out.heuristicVal;
+        out.radius = 0;
+        return true;
+    }
+
+    private State propagate(State xSelected, double[] u) {
+        return propagate(xSelected, u, context);
+    }
+
+    /**
+     * Overloaded propagate (work out the heuristic value of the new state for the given goal).
+     */
+    private State propagate(State xSelected, double[] u, PlanningContext goal) {
+        integrator.load(xSelected);
+        if (!integrator.propagate(world, u)) {
+            return null;
+        }
+        State xCopy = xSelected.copyState();
+        integrator.store(xCopy);
         xCopy.controls = u;
-        xCopy.setParent(xSelected);
+        xCopy.setParent(xSelected, goal);
         return xCopy;
     }
 
@@ -342,6 +1197,23 @@ public class DIRT {
      * @param leg The end state of the trajectory to test
      */
     public State testLeg(State leg) {
+        return testLeg(leg, context);
+    }
+
+    /**
+     * Overloaded testLeg (test against another goal than the one this run is solving for, without retargeting).
+     * @param leg The end state of the trajectory to test
+     * @param goal The goal state
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     */
+    public State testLeg(State leg, State goal, boolean fullGoalCheck) {
+        return testLeg(leg, new PlanningContext(goal, fullGoalCheck, world));
+    }
+
+    /**
+     * Apply the controls of a trajectory to the root and return the end state if it reaches the given goal.
+     */
+    private State testLeg(State leg, PlanningContext goal) {
         LinkedList<State> traj = new LinkedList<>();
         Iterator<State> it;
         State x = root;
@@ -357,7 +1229,7 @@ public class DIRT {
 
         // Iterate through trajectory, applying controls
         while (it.hasNext()) {
-            x = propagate(x, it.next().controls);
+            x = propagate(x, it.next().controls, goal);
 
             // If the vehicle hits an obstacle, return null
             if (x == null) {
@@ -365,14 +1237,8 @@ public class DIRT {
             }
         }
 
-        // Calculate the distance from the current state to the goal
-        double dis = distance(x, goal);
-        double diffDir = Math.abs(x.getAngle() - goal.getAngle());
-        double diffVelX = Math.abs(goal.velocity.x - x.velocity.x);
-        double diffVelY = Math.abs(goal.velocity.y - x.velocity.y);
-
         // Return the final state if it is near to the waypoint state, or null otherwise
-        if (dis <= WAYPOINT_RADIUS && (!fullGoalCheck || (diffDir <= 0.5 && diffVelX <= 0.5 && diffVelY <= 0.5))) {
+        if (goal.atGoal(x)) {
             return x;
         } else {
             return null;
@@ -386,121 +1252,357 @@ public class DIRT {
      * @param y the current y position being tested
      * @return true if there is a collision, false otherwise
      */
-    private boolean posCollision(double x, double y) {
-        if (x <= 0 || x >= worldWidth || y <= 0 || y >= worldHeight) {
-            return true;
-        }
-        for (int i = 0; i < blockedSpaces.size(); i++) {
-            if (x <= (blockedSpaces.get(i)[0] * scaleFactor) + scaleFactor && x >= (blockedSpaces.get(i)[0] * scaleFactor)) {
-                if (y <= (blockedSpaces.get(i)[1] * scaleFactor) + scaleFactor && y >= (blockedSpaces.get(i)[1] * scaleFactor)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    boolean posCollision(double x, double y) {
+        return world.posCollision(x, y);
     }
 
     /**
      * Given a state, find random controls (edge candidates) from it.
-     * @param x The state to blossom from
-     * @return Edge candidate(s)
+     * @param x The index of the state to blossom from
      */
-    private void blossom(State x) {
-        LinkedList<double[]> edgeCands = new LinkedList<double[]>();
-
-        if (x.expanded) {
+    private void blossom(int x) {
+        if (tree.isExpanded(x)) {
             // Add a single control to edge candidates
-            edgeCands.add(randomControl());
+            tree.setEcand(x, 1);
+            addRandomControl(x);
         } else {
             // Mark that this state has been expanded
-            x.expanded = true;
+            tree.setFlag(x, TreeStore.EXPANDED);
             
             // Add a number of controls to edge candidates equal to the predetermined edges per iteration
+            tree.setEcand(x, edgesPerIteration);
             for (int i = 0; i < edgesPerIteration; i++) {
-                edgeCands.add(randomControl());
+                addRandomControl(x);
             }
         }
-
-        // Update the edge candidates in state x
-        x.Ecand = edgeCands;
     }
 
     /**
-     * Return a random control.
-     * @return A control
+     * Add a random control to the edge candidates of a state.
+     * @param x The index of the state
      */
-    private double[] randomControl() {
-        double turn = (r.nextInt(3) - 1) * r.nextDouble();
-        double acc = r.nextDouble() / 10;
-        double time = r.nextDouble() / 2 + 0.05;
-        return new double[] {turn, acc, time};
-        
+    private void addRandomControl(int x) {
+        if (primitives != null) {
+            double[] u = primitives.randomControl(controlRandom);
+            tree.addEcand(x, u[0], u[1], u[2]);
+            return;
+        }
+        double turn = (controlRandom.nextInt(3) - 1) * controlRandom.nextDouble();
+        double acc = controlRandom.nextDouble() / 10;
+        double time = controlRandom.nextDouble() / 2 + 0.05;
+        tree.addEcand(x, turn, acc, time);
     }
 
     /**
-     * Update dominance regions and then prune any states that are inside of another state.
+     * Update dominance regions and then prune any states that are inside of another state. The first time this runs
+     * every state in the tree is checked; after that, the tree has no states inside of each other, so only the states
+     * whose DIRs just changed (including xNew) can be inside of, or contain, another state.
      * @param xSelected xNew's parent state
      * @param xNew The state being assigned a radius
      */
-    private void updateDIRpruning(State xSelected, State xNew) {
+    void updateDIRpruning(int xSelected, int xNew) {
+        changedStates.clear();
+        trackChanges = true;
         updateDominanceRegions(xSelected, xNew);
+        trackChanges = false;
 
-        //LinkedList<State> hitList = new LinkedList<State>();
-        Iterator<State> itX = tree.iterator();
-        Iterator<State> itX2;
-        State x;
-        State x2;
+        if (metrics != null) {
+            metrics.lap(SolveMetrics.Phase.DOMINANCE);
+        }
 
-        // Collect states to prune
-        while (itX.hasNext()) {
-            x = (State) itX.next();
+        if (!prunedOnce) {
+            prunedOnce = true;
+            ArrayList<Integer> hitList = new ArrayList<Integer>();
 
-            if (x != root) {
-                itX2 = tree.iterator();
+            // Collect every state that is inside of another state
+            for (int x = 0; x < tree.size(); x++) {
+                if (!tree.isPruned(x) && isContained(x)) {
+                    hitList.add(x);
+                }
+            }
 
-                while (itX2.hasNext()) {
-                    x2 = (State) itX2.next();
+            // Then prune them (if x is inside a state that gets pruned, it is also inside whatever contains that one)
+            for (int x : hitList) {
+                pruneState(x);
+            }
+        } else {
+            for (int i = 0; i < changedStates.size(); i++) {
+                int c = changedStates.get(i);
+
+                // Prune the changed state if it is now inside of another state
+                if (!tree.isPruned(c) && isContained(c)) {
+                    pruneState(c);
+                }
+
+                // Prune the states that the changed state now contains
+                int found = index.queryRadius(tree.posX(c), tree.posY(c), tree.radius(c));
+
+                if (found > hits.length) {
+                    hits = new int[Math.max(found, hits.length * 2)];
+                }
+                for (int j = 0; j < found; j++) {
+                    hits[j] = index.getHit(j);
+                }
+                for (int j = 0; j < found; j++) {
+                    int x = hits[j];
 
-                    // If x is entirely contained within x2, remove it from the tree
-                    if (x.radius + distance(x, x2) < x2.radius) {
-                        itX.remove();
-                        //markForDeath(hitList, x);
-                        break;
+                    if (x != 0 && tree.radius(x) + tree.distance(x, c) < tree.radius(c)) {
+                        pruneState(x);
                     }
                 }
             }
         }
+        if (metrics != null) {
+            metrics.lap(SolveMetrics.Phase.PRUNING);
+        }
+    }
+
+    /**
+     * Returns whether or not a state is entirely contained within the DIR of another state in the tree. A state can
+     * only be inside of states that are less than the largest DIR radius away from it.
+     * @param x The index of the state to check
+     * @return Boolean
+     */
+    private boolean isContained(int x) {
+        if (x == 0) {
+            return false;
+        }
+        int found = index.queryRadius(tree.posX(x), tree.posY(x), index.getMaxRadius());
+
+        for (int i = 0; i < found; i++) {
+            int x2 = index.getHit(i);
+
+            if (tree.radius(x) + tree.distance(x, x2) < tree.radius(x2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove a state from the tree. Its data stays in the tree store, since states that were extended from it still
+     * need it for their trajectories.
+     * @param x The index of the state to prune
+     */
+    private void pruneState(int x) {
+        tree.setFlag(x, TreeStore.PRUNED);
+        index.remove(x);
+        treeSize--;
+
+        if (recycling) {
+            prunedStates.add(x);
+        }
+
+        if (metrics != null) {
+            metrics.pruned();
+        }
+    }
+
+    /**
+     * Return the best trajectory found so far by the current (or last) solve. This is safe to call from another
+     * thread while solve() is running.
+     * @return The trajectory (end state), or null if there isn't one yet
+     */
+    public State getBestSolution() {
+        return bestSolution;
+    }
+
+    /**
+     * Set whether or not solve() stops as soon as it finds a trajectory.
+     * @param firstSol Boolean
+     */
+    public void setFirstSol(boolean firstSol) {
+        this.firstSol = firstSol;
+    }
+
+    /**
+     * Set whether or not solve() prints the solutions it finds, why it stopped and the size of the tree (Ex. turn it off
+     * to time solve() without the printing).
+     * @param verbose Boolean
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Share the best solution cost (and deadline) with other runs, so this run only adds states that could beat the
+     * best solution found by any of them.
+     * @param incumbent The shared incumbent
+     */
+    public void setIncumbent(SharedIncumbent incumbent) {
+        this.incumbent = incumbent;
+    }
+
+    /**
+     * Propagate the edge candidates of each selected state in parallel on the given pool (null goes back to
+     * propagating them one at a time). The results are the same either way. Handing a batch to the pool costs about as
+     * much as propagating a couple dozen candidates, so only states with at least PARALLEL_MIN_CANDIDATES of them
+     * (a high number of edges per iteration) are done in parallel.
+     * @param expansionPool The pool to use
+     */
+    public void setExpansionPool(ForkJoinPool expansionPool) {
+        this.expansionPool = expansionPool;
+    }
+
+    /**
+     * Set whether or not the space of pruned states is reused. A pruned state is reclaimed once no state below it is
+     * left in the tree, and the next state added takes its place, so the tree store stops growing once pruning keeps
+     * up with the new states. The solution states are never reclaimed. Ties are still broken in the order the states
+     * were added, so solve() gives the same results either way (but retarget() can't bring back reclaimed states).
+     * @param recycling Boolean
+     */
+    public void setRecycling(boolean recycling) {
+        if (recycling && !this.recycling) {
+            for (int x = 0; x < tree.size(); x++) {
+                index.setSerial(x, tree.serial[x]);
+            }
+        }
+        this.recycling = recycling;
+    }
+
+    /**
+     * Store the tree in compact mode, with the fields of its states rounded to floats so that each takes half the
+     * memory, for trees that would otherwise run out of heap. DIRT still integrates in double precision, and the
+     * trajectories that solve() and solveAll() return are made again from the root in full precision. The best
+     * solution read with getBestSolution() while solving is the rounded one until solving finishes.
+     * @param compact Boolean
+     */
+    public void setCompact(boolean compact) {
+        tree.setCompact(compact);
+
+        // Move the states in the index to where the tree now has them
+        for (int x : tree.order()) {
+            if (!tree.isPruned(x)) {
+                index.remove(x);
+                index.insert(x, tree.posX(x), tree.posY(x), tree.radius(x));
+            }
+        }
+    }
+
+    /**
+     * Keep the tree to at most the given number of states, so that a long run (or one that goes on until it is out of
+     * time) takes a constant amount of memory. Pruned states count too while states below them still need them for
+     * their trajectories. Whenever the tree fills up, 1/16 of that many leaf states are evicted, in the order given by
+     * the eviction policy. The ancestors of the states that are left are never evicted, and neither is the best
+     * solution (to each goal, in solveAll()), so the best trajectory found so far is always kept. This turns on
+     * recycling (see setRecycling()) so the space of evicted states gets reused. If nothing can be evicted (every leaf
+     * is a solution), the tree grows past the limit.
+     * @param maxStates The most states the tree may hold (0 for no limit)
+     * @param eviction The order to evict states in
+     */
+    public void setMaxStates(int maxStates, Eviction eviction) {
+        this.maxStates = maxStates;
+        this.eviction = eviction;
+        tree.setCapacityLimit(maxStates > 0 ? maxStates : Integer.MAX_VALUE);
+
+        if (maxStates > 0) {
+            setRecycling(true);
+        }
     }
 
     /**
-     * Return the distance between two points.
-     * @param x1 x of first point
-     * @param y1 y of first point
-     * @param x2 x of second point
-     * @param y2 y of second point
-     * @return The distance
+     * Overloaded setMaxStates (evicts the worst path quality first).
      */
-    private static double distance(double x1, double y1, double x2, double y2) {
-        return Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
+    public void setMaxStates(int maxStates) {
+        setMaxStates(maxStates, Eviction.WORST_PATH_QUALITY);
     }
 
     /**
-     * Return the distance between two states.
-     * @param x The first state
-     * @param x2 The second state
-     * @return The distance
+     * Take random numbers from the given streams from now on, like a run made with them would (Ex. for the next solve()
+     * after retarget(), so that it draws the same numbers whichever run's tree it carries on growing).
+     * @param streams The random number streams
      */
-    private static double distance(State x, State x2) {
-        return Math.sqrt(Math.pow(x2.position.x - x.position.x, 2) +
-            Math.pow(x2.position.y - x.position.y, 2));
+    public void setRandomStreams(RandomStreams streams) {
+        r = streams.stream(RandomStreams.Purpose.SELECTION);
+        sampleRandom = streams.stream(RandomStreams.Purpose.SAMPLE);
+        controlRandom = streams.stream(RandomStreams.Purpose.CONTROL);
     }
 
     /**
-     * Return the entire tree.
+     * Record timers and counters into the given metrics while solving (null to stop recording). Every solve adds to
+     * them, so give each solve its own SolveMetrics to keep its tree sizes over time.
+     * @param metrics The metrics
+     */
+    public void setMetrics(SolveMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Use a discretized set of controls backed by a library of motion primitives, so that edge candidates are scored
+     * from the library instead of integrated, and only the best one is integrated (without collision checks wherever
+     * its footprint is clear). Null goes back to continuous random controls. The library has to be made for a world
+     * with the same cell size as this one.
+     * @param primitives The motion primitive library
+     */
+    public void setMotionPrimitives(MotionPrimitives primitives) {
+        if (primitives != null && primitives.getCellSize() != scaleFactor) {
+            throw new IllegalArgumentException("Motion primitives are for cells " + primitives.getCellSize()
+                + " wide, but the world's are " + scaleFactor + " wide");
+        }
+        this.primitives = primitives;
+    }
+
+    /**
+     * Set whether or not the heuristic takes the walls into account. If it does, states are scored by the distance
+     * around the walls to the goal (from a wavefront over the map that every run heading for the same goal shares)
+     * whenever that is longer than the straight-line distance. Call this before solve().
+     * @param obstacleAware Boolean
+     */
+    public void setObstacleAwareHeuristic(boolean obstacleAware) {
+        context = new PlanningContext(context.getGoal(), context.isFullGoalCheck(), world, obstacleAware);
+    }
+
+    /**
+     * Apply controls that can't get near an obstacle or the goal all at once, using the closed form of the motion,
+     * instead of step by step (in solve() and testLeg()). The resulting states are the same as stepping to within the
+     * tolerance.
+     * @param tolerance How far the result of a jump may be from stepping (0 or less to always step)
+     */
+    public void setAdaptiveIntegration(double tolerance) {
+        integrator.setTolerance(tolerance);
+        integrator.setGoal(context.getGoalX(), context.getGoalY(), WAYPOINT_RADIUS);
+    }
+
+    /**
+     * Set whether or not controls that can't get as far as the nearest obstacle skip their collision checks (in solve()
+     * and testLeg()). The first run on a map to use it works out the map's distance field, which takes a while on big
+     * maps, so it is off unless asked for (adaptive integration always uses it).
+     * @param clearanceShortcut Boolean
+     */
+    public void setClearanceShortcut(boolean clearanceShortcut) {
+        integrator.setClearanceShortcut(clearanceShortcut);
+    }
+
+    /**
+     * Set how propagated trajectories are checked for collisions (in solve() and testLeg()).
+     * @param mode The collision mode
+     */
+    public void setCollisionMode(Integrator.CollisionMode mode) {
+        integrator.setCollisionMode(mode);
+    }
+
+    /**
+     * Return the goal and world this run is planning for.
+     * @return The planning context
+     */
+    public PlanningContext getContext() {
+        return context;
+    }
+
+    /**
+     * Return the tree store itself (for benchmarks).
+     * @return The tree store
+     */
+    TreeStore getTreeStore() {
+        return tree;
+    }
+
+    /**
+     * Return the entire tree (as new States made from the tree store).
      * @return tree
      */
     public LinkedList<State> getTree() {
-        return tree;
+        return tree.materializeAll(root);
     }
 
     /**
@@ -509,23 +1611,7 @@ public class DIRT {
      */
     public static void writeControls(LinkedList<State> traj) {
         try {
-            FileWriter fw = new FileWriter("controls.txt", false);
-            Iterator<State> it;
-            State x;
-            
-            // Write number of controls to file
-            fw.write(traj.size() - 1 + "\n");
-
-            // Write the controls to file
-            it = traj.iterator();
-            it.next(); // Skip the root
-            
-            while (it.hasNext()) {
-                x = (State) it.next();
-                fw.write(x.controls[0] + " " + x.controls[1] + " " + x.controls[2] + " " + x.waypointHit + "\n");
-            }
-
-            fw.close();
+            TrajectoryIO.writeControls(traj, "controls.txt", TrajectoryIO.Format.TEXT);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -537,56 +1623,37 @@ public class DIRT {
      */
     public static void writeStates(LinkedList<State> traj) {
         try {
-            FileWriter fw = new FileWriter("states.txt", false);
-            Iterator<State> it;
-            State x;
-            
-            // Write number of states to file
-            fw.write(traj.size() + "\n");
-
-            // Write the controls to file
-            it = traj.iterator();
-            
-            while (it.hasNext()) {
-                x = (State) it.next();
-                fw.write(x.position.x + " " + x.position.y + " " + Math.atan2(x.direction.y, x.direction.x) + "\n");
-            }
-
-            fw.close();
+            TrajectoryIO.writeStates(traj, "states.txt", TrajectoryIO.Format.TEXT);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes the x, y, and DIR radius of each state in the given tree and then the given trajectory to a file called
+     * "tree.txt".
+     * @param tree Tree
+     * @param traj Trajectory
+     */
     public static void writeTree(LinkedList<State> tree, LinkedList<State> traj) {
         try {
-            FileWriter fw = new FileWriter("tree.txt", false);
-            Iterator<State> itt;
-            Iterator<State> it;
-            State x;
-            
-            // Write number of states to file
-            itt = tree.iterator();
-            fw.write("TREE_NODES\n");
-            while (itt.hasNext()) {
-                x = (State) itt.next();
-                fw.write(x.position.x + " " + x.position.y + " " + x.radius + "\n");
-            }
-
-            // Write the controls to file
-            it = traj.iterator();
-            fw.write("TRAJECTORY\n");
-            while (it.hasNext()) {
-                x = (State) it.next();
-                fw.write(x.position.x + " " + x.position.y + " " + x.radius + "\n");
-            }
-
-            fw.close();
+            TrajectoryIO.writeTree(tree, traj, "tree.txt", TrajectoryIO.Format.TEXT);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes this run's tree (read straight out of the tree store) and the given trajectory to a file, in any of the
+     * formats of TrajectoryIO.
+     * @param traj Trajectory
+     * @param fileName The name of the file
+     * @param format The format
+     */
+    public void writeTree(LinkedList<State> traj, String fileName, TrajectoryIO.Format format) throws IOException {
+        TrajectoryIO.writeTree(tree, traj, fileName, format);
+    }
+
     /**
      * This inner class defines each state. Each state has three vectors, one for direction, velocity, and position.
      * The class also contains the methods that do the calculations on each of those vectors.
@@ -602,7 +1669,6 @@ public class DIRT {
         public double heuristicVal; // h
         public boolean expanded;
         public double[] controls; // The controls that led to this state
-        LinkedList<double[]> Ecand; // Edge cadidates
         double friction = 0.99; // The force of friction applied to the velocity values each timestep.
         int waypointHit = 0; // The number of the waypoint hit at this state (0 for none)
 
@@ -617,10 +1683,18 @@ public class DIRT {
             this.velocity = velocity;
             this.position = position;
             this.expanded = false;
-            Ecand = new LinkedList<double[]>();
         }
 
         public void setParent(State parent) {
+            setParent(parent, legacyContext());
+        }
+
+        /**
+         * Set the parent of this State and work out its cost and heuristic value.
+         * @param parent The parent
+         * @param context The goal to work out the heuristic value for
+         */
+        public void setParent(State parent, PlanningContext context) {
             this.parent = parent;
             
             if (parent != null) {
@@ -629,7 +1703,7 @@ public class DIRT {
                 cost = 0;
             }
 
-            heuristicVal = h();
+            heuristicVal = h(context);
             pathQuality = cost + heuristicVal;
         }
 
@@ -638,56 +1712,29 @@ public class DIRT {
         }
 
         /**
-         * Heuristic function that returns the estimated time (lower bound) from the current state to the goal state.
-         * @param curr The current state
+         * Heuristic function that returns the estimated time (lower bound) from the current state to the goal state
+         * in DIRT.goal.
          * @return The estimated time to the goal
          */
         public double h() {
-            // Calculate the distance from the current state to the goal
-            double dis = distance(this, goal);
-            double diffDir = Math.abs(getAngle() - goal.getAngle());
-            double diffVelX = Math.abs(goal.velocity.x - this.velocity.x);
-            double diffVelY = Math.abs(goal.velocity.y - this.velocity.y);
-            double time;
-
-            // Return 0 if the state is in range of the goal; otherwise, return the lower-bound on time between the states
-            if (dis <= WAYPOINT_RADIUS && (!fullGoalCheck || (diffDir <= 0.5 && diffVelX <= 0.5 && diffVelY <= 0.5))) {
-                time = 0;
-            } else if (fullGoalCheck) {
-                double v = Math.sqrt(Math.pow(goal.velocity.x, 2) + Math.pow(goal.velocity.y, 2));
-                double vo = Math.sqrt(Math.pow(this.velocity.x, 2) + Math.pow(this.velocity.y, 2));
-                time = (distance(this, goal) * 2) / (v + vo);
-            } else {
-                double vo = Math.sqrt(Math.pow(this.velocity.x, 2) + Math.pow(this.velocity.y, 2));
-                double underRad = 2 * -dis;
-                double timePlus = (-vo + Math.sqrt(Math.pow(vo, 2) - underRad));
-                double timeMinus = (-vo - Math.sqrt(Math.pow(vo, 2) - underRad));
-
-                if (timePlus > 0) {
-                    time = timePlus;
-                } else {
-                    time = timeMinus;
-                }
-            }
-
-            return time;
+            return h(legacyContext());
         }
 
         /**
-         * Calculates the task space distance between the current state and the state passed as a parameter.
-         * @param goTo The state being measured to
+         * Heuristic function that returns the estimated time (lower bound) from the current state to the goal state
+         * of the given context.
+         * @param context The goal to estimate the time to
+         * @return The estimated time to the goal
          */
-        private double distPoints(State goTo) {
-            return Math.sqrt(Math.pow(position.x - goTo.position.x, 2) + Math.pow(position.y - goTo.position.y, 2));
+        public double h(PlanningContext context) {
+            return context.h(this);
         }
 
         /**
-         * Returns whether or not the given point is within this state's DIR.
-         * @param pt The point to check
-         * @return Boolean
+         * Make a context out of the goal in DIRT.goal, for the methods that aren't given one.
          */
-        private boolean inDIR(Vector pt) {
-            return distance(pt.x, pt.y, position.x, position.y) <= radius;
+        private static PlanningContext legacyContext() {
+            return new PlanningContext(goal, fullGoalCheck, null);
         }
 
         /**
@@ -704,16 +1751,15 @@ public class DIRT {
 
         /**
          * This method takes the direction vector and whether or not the vehicle is accelerating (0 or 1), and updates
-         * the velocity vector based on those numbers. It has to make a copy of the direction vector, because otherwise
-         * it would change the values inadvertently, which was what was happening before I figured out that issue.
+         * the velocity vector based on those numbers. The direction vector is scaled on the fly instead of being copied
+         * and scaled in place, so it isn't changed inadvertently.
          * @param velocity This State's velocity vector
          * @param direction This State's direction vector
          * @param acceleration Either a 0 or 1, indicating whether or not the vehicle is accelerating
          */
         public void updateVelocityVec(Vector velocity, Vector direction, double acceleration) {
-            Vector dirCopy = direction.copyVector();
-            dirCopy.multOne(acceleration);
-            velocity.addVector(dirCopy);
+            velocity.x += direction.x * acceleration;
+            velocity.y += direction.y * acceleration;
             velocity.multOne(friction);
             this.velocity.x = Math.min(this.velocity.x, 2);
             this.velocity.y = Math.min(this.velocity.y, 2);
@@ -777,8 +1823,8 @@ public class DIRT {
                       + "#__###__#__###___#__###__#\n"
                       + "#_______#__####_____###__#\n"
                       + "##########################";
-        DIRT.goal = new State(new Vector(0, 1), new Vector(0, -1), new Vector(20, 15));
+        State goal = new State(new Vector(0, 1), new Vector(0, -1), new Vector(20, 15));
         DIRT dirt = new DIRT(new State(new Vector(0, -1),
-             new Vector(0, 0), new Vector(20, 75)), 260, 90, map, 100000, 7, true);
+             new Vector(0, 0), new Vector(20, 75)), goal, 260, 90, map, 100000, 7, true);
     }
 }
\ No newline at end of file
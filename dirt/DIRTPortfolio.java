@@ -0,0 +1,154 @@
+package dirt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dirt.DIRT.State;
+
+/**
+ * Runs several DIRT trees with different seeds at the same time (one per thread) and returns the best trajectory any
+ * of them finds. The trees share their best solution cost through a SharedIncumbent, so every tree prunes against the
+ * best solution found so far by all of them. If the portfolio is given random number streams instead of a seed, each
+ * tree gets the child stream for its worker number, so it draws the same random numbers however the threads are
+ * scheduled. That alone only makes a tree reproducible when no incumbent is shared: here, what a tree prunes (and so
+ * how it uses those numbers) depends on when the other trees find their solutions, so the results can still change
+ * from run to run.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class DIRTPortfolio {
+    // Field variables
+    private State root;
+    private State goal;
+    private World world;
+    private int iterations;
+    private int edgesPerIteration;
+    private boolean fullGoalCheck;
+    private long seed;
+    private RandomStreams streams; // Random number streams the trees get theirs from (null to use the seed)
+    private int workers;
+
+    /**
+     * Constructor.
+     * @param root The starting state of the vehicle
+     * @param goal The goal state
+     * @param world The compiled world (see World.compile())
+     * @param iterations The number of iterations each tree runs for
+     * @param edgesPerIteration The number of edges to expand per iteration
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     * @param seed The random seed that the seeds of the trees are made from
+     * @param workers The number of trees to run (one per thread)
+     */
+    public DIRTPortfolio(State root, State goal, World world, int iterations, int edgesPerIteration,
+            boolean fullGoalCheck, long seed, int workers) {
+        this.root = root;
+        this.goal = goal;
+        this.world = world;
+        this.iterations = iterations;
+        this.edgesPerIteration = edgesPerIteration;
+        this.fullGoalCheck = fullGoalCheck;
+        this.seed = seed;
+        this.workers = workers;
+    }
+
+    /**
+     * Overloaded constructor (give tree i the random number streams streams.child(i) instead of a seed).
+     */
+    public DIRTPortfolio(State root, State goal, World world, int iterations, int edgesPerIteration,
+            boolean fullGoalCheck, RandomStreams streams, int workers) {
+        this(root, goal, world, iterations, edgesPerIteration, fullGoalCheck, streams.getSeed(), workers);
+        this.streams = streams;
+    }
+
+    /**
+     * Overloaded constructor (read in the map instead of being given the world).
+     */
+    public DIRTPortfolio(State root, State goal, int worldWidth, int worldHeight, String map, int iterations,
+            int edgesPerIteration, boolean fullGoalCheck, long seed, int workers) {
+        this(root, goal, World.compile(worldWidth, worldHeight, map), iterations, edgesPerIteration, fullGoalCheck,
+            seed, workers);
+    }
+
+    /**
+     * Run all of the trees until they run out of iterations or time, and return the best trajectory found.
+     * @param timeBudget The time the trees have, in nanoseconds (0 or less for no limit)
+     * @return The trajectory (end state), or null if no tree found one
+     */
+    public State solve(long timeBudget) {
+        SharedIncumbent incumbent = new SharedIncumbent(timeBudget);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Callable<State>> runs = new ArrayList<>();
+        Random seeds = new Random(seed);
+        root.parent = null;
+        root.radius = 0;
+
+        // Set up the trees (each one gets its own copy of the root, since DIRT writes to it)
+        for (int i = 0; i < workers; i++) {
+            DIRT dirt = streams != null
+                ? new DIRT(copyRoot(), goal, world, iterations, edgesPerIteration, fullGoalCheck, streams.child(i))
+                : new DIRT(copyRoot(), goal, world, iterations, edgesPerIteration, fullGoalCheck, seeds.nextLong());
+            dirt.setIncumbent(incumbent);
+            runs.add(dirt::solve);
+        }
+
+        // Run them and keep the best solution (the earlier tree wins a tie)
+        State best = null;
+
+        try {
+            for (Future<State> run : pool.invokeAll(runs)) {
+                State x = run.get();
+
+                if (x != null && (best == null || x.cost < best.cost)) {
+                    best = x;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+
+        // Hook the trajectory up to the caller's root instead of the copy
+        if (best != null) {
+            State x = best;
+
+            while (x.parent != null && x.parent.parent != null) {
+                x = x.parent;
+            }
+            if (x.parent != null) {
+                x.parent = root;
+            } else {
+                best = root;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Overloaded solve (no time limit).
+     */
+    public State solve() {
+        return solve(0);
+    }
+
+    /**
+     * Make a copy of the root, including its cost.
+     * @return The copy
+     */
+    private State copyRoot() {
+        State copy = root.copyState();
+        copy.cost = root.cost;
+        copy.heuristicVal = root.heuristicVal;
+        copy.pathQuality = root.pathQuality;
+        copy.controls = root.controls;
+        return copy;
+    }
+}
@@ -0,0 +1,385 @@
+package dirt;
+
+import dirt.DIRT.State;
+
+/**
+ * Moves the vehicle forward under a single control without allocating anything. The direction, velocity and position
+ * are kept in primitive registers, and the sine and cosine of the turn are worked out once per control instead of once
+ * per time step. The math is done in exactly the same order as State's update methods, so the results are bit-for-bit
+ * the same as stepping a State. Optionally, a control that can't get near an obstacle or the goal is applied all at
+ * once using the closed form of the motion (see jump()), which is the same as stepping within a given tolerance.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class Integrator {
+    /**
+     * The ways of checking a propagated trajectory for collisions. POINT checks the end of every time step, and SWEPT
+     * checks the whole line segment covered by every time step. COARSE only checks once for every few time steps when
+     * the vehicle is slow (at most about half a map cell at a time): it checks the chord between the ends of those
+     * steps, widened by how far the curved path in between can stray from it. It never misses a collision that SWEPT
+     * would catch, but near obstacles it can reject a turning control that SWEPT would let through, and it saves
+     * little when the vehicle is fast enough to cover half a cell in a step or two.
+     */
+    public enum CollisionMode { POINT, SWEPT, COARSE }
+
+    // Global constants
+    final static double TIME_STEP = 0.05; // The time between each update of the vehicle
+    final static double FRICTION = 0.99; // The force of friction applied to the velocity values each time step
+    final static double MAX_VELOCITY = 2; // The cap on each velocity value
+
+    // Registers
+    public double dirX;
+    public double dirY;
+    public double velX;
+    public double velY;
+    public double posX;
+    public double posY;
+    private double cos;
+    private double sin;
+    private double turn;
+    private double acc;
+    private CollisionMode mode = CollisionMode.POINT;
+    private double tolerance = 0; // How far a jump may be from stepping (0 for no jumps)
+    private boolean clearanceShortcut = false; // Whether to skip the collision checks of controls far from obstacles
+    private double goalX;
+    private double goalY;
+    private double goalRadius = -1; // Jumps aren't made into this circle around the goal (-1 for no goal)
+
+    /**
+     * Load a state into the registers.
+     */
+    public void load(double dirX, double dirY, double velX, double velY, double posX, double posY) {
+        this.dirX = dirX;
+        this.dirY = dirY;
+        this.velX = velX;
+        this.velY = velY;
+        this.posX = posX;
+        this.posY = posY;
+    }
+
+    /**
+     * Load a State into the registers.
+     * @param x The State
+     */
+    public void load(State x) {
+        load(x.direction.x, x.direction.y, x.velocity.x, x.velocity.y, x.position.x, x.position.y);
+    }
+
+    /**
+     * Copy the registers into a State.
+     * @param x The State to write to
+     */
+    public void store(State x) {
+        x.direction.x = dirX;
+        x.direction.y = dirY;
+        x.velocity.x = velX;
+        x.velocity.y = velY;
+        x.position.x = posX;
+        x.position.y = posY;
+    }
+
+    /**
+     * Set the turn and acceleration to apply on each step.
+     * @param turn The turn
+     * @param acceleration The acceleration
+     */
+    public void setControl(double turn, double acceleration) {
+        this.turn = turn;
+        cos = Math.cos(turn);
+        sin = Math.sin(turn);
+        acc = acceleration;
+    }
+
+    /**
+     * Advance the registers by one time step (turn, then accelerate and apply friction, then move).
+     */
+    public void step() {
+        double ogX = dirX;
+        double ogY = dirY;
+        dirX = (cos * ogX) + (sin * ogY);
+        dirY = (-sin * ogX) + (cos * ogY);
+        velX += dirX * acc;
+        velY += dirY * acc;
+        velX *= FRICTION;
+        velY *= FRICTION;
+        velX = Math.min(velX, MAX_VELOCITY);
+        velY = Math.min(velY, MAX_VELOCITY);
+        posX += velX;
+        posY += velY;
+    }
+
+    /**
+     * Apply a control from the state in the registers, checking for collisions along the way.
+     * @param world The world to check collisions against
+     * @param u The control (turn, acceleration, time)
+     * @return false if the vehicle collided, true otherwise
+     */
+    public boolean propagate(World world, double[] u) {
+        setControl(u[0], u[1]);
+
+        // If the vehicle can't get as far as the nearest obstacle during the control, there is nothing to check (jumps
+        // are only made then, so they need the shortcut too)
+        if (clearanceShortcut || tolerance > 0) {
+            int steps = steps(u[2]);
+            if (reach(steps) < world.clearance(posX, posY)) {
+                if (canJump(steps)) {
+                    jump(steps);
+                } else {
+                    for (int i = 0; i < steps; i++) {
+                        step();
+                    }
+                }
+                return true;
+            }
+        }
+
+        if (mode == CollisionMode.POINT) {
+            for (double i = 0; i < u[2]; i += TIME_STEP) {
+                step();
+                if (world.posCollision(posX, posY)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (mode == CollisionMode.COARSE) {
+            return propagateCoarse(world, steps(u[2]));
+        }
+
+        // Sweep the segment covered by every step
+        for (double i = 0; i < u[2]; i += TIME_STEP) {
+            double lastX = posX;
+            double lastY = posY;
+            step();
+            if (world.segmentCollision(lastX, lastY, posX, posY)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply the given number of steps of the control in the registers in chunks that can't go further than half a map
+     * cell, checking each chunk for collisions (see CollisionMode.COARSE). The vehicle moves in a straight line during
+     * each step, so a single step is swept exactly. Over several steps, the path has some length L, so every point of
+     * it is inside the ellipse with the ends of the chunk as its foci and L as its major axis, which is no further than
+     * sqrt(L^2 - c^2) / 2 (its semi-minor axis) from the chord of length c between them.
+     * @param world The world to check collisions against
+     * @param steps The number of steps
+     * @return false if the vehicle may have collided, true otherwise
+     */
+    private boolean propagateCoarse(World world, int steps) {
+        double maxChord = world.getScaleFactor() / 2.0;
+        int done = 0;
+
+        while (done < steps) {
+            double lastX = posX;
+            double lastY = posY;
+            double v0 = Math.sqrt(velX * velX + velY * velY);
+            double a = Math.abs(acc) * Math.sqrt(dirX * dirX + dirY * dirY);
+            int chunk = 1;
+
+            // Take as many steps as can't get further than the longest chord (see reach())
+            while (done + chunk < steps && (chunk + 1) * v0 + a * (chunk + 1) * (chunk + 2) / 2.0 <= maxChord) {
+                chunk++;
+            }
+            if (chunk == 1) {
+                step();
+                if (world.segmentCollision(lastX, lastY, posX, posY)) {
+                    return false;
+                }
+            } else {
+                // Every step moves the vehicle by its new velocity, so the exact length of the path is known
+                double length = 0;
+
+                for (int i = 0; i < chunk; i++) {
+                    step();
+                    length += Math.sqrt(velX * velX + velY * velY);
+                }
+                double chord = Math.sqrt(Math.pow(posX - lastX, 2) + Math.pow(posY - lastY, 2));
+                double stray = Math.sqrt(Math.max(0, length * length - chord * chord)) / 2;
+
+                if (world.corridorCollision(lastX, lastY, posX, posY, stray)) {
+                    return false;
+                }
+            }
+            done += chunk;
+        }
+        return true;
+    }
+
+    /**
+     * Apply a control from the state in the registers without checking for collisions, for controls that are already
+     * known to be clear (Ex. by their motion primitive's footprint).
+     * @param u The control (turn, acceleration, time)
+     */
+    public void advance(double[] u) {
+        setControl(u[0], u[1]);
+        int steps = steps(u[2]);
+        if (canJump(steps)) {
+            jump(steps);
+        } else {
+            for (int i = 0; i < steps; i++) {
+                step();
+            }
+        }
+    }
+
+    /**
+     * Advance the registers by the given number of time steps at once. With no velocity cap, each step multiplies the
+     * direction (as a complex number) by w = e^(-i * turn) and the velocity by the friction q, after adding the
+     * acceleration, so the geometric series give
+     *     d_n = w^n * d_0
+     *     v_n = q^n * v_0 + a * d_0 * K * (q^n - w^n)
+     *     p_n = p_0 + v_0 * Q + a * d_0 * K * (Q - W)
+     * where K = q * w / (q - w), Q = q + q^2 + ... + q^n and W = w + w^2 + ... + w^n. This is only the same as
+     * stepping if the velocity cap never kicks in (see canJump()).
+     * @param n The number of steps
+     */
+    public void jump(int n) {
+        double q = FRICTION;
+        double qn = Math.pow(q, n);
+        double sumQ = q * (1 - qn) / (1 - q);
+
+        // w^n and W (written as e^(-i(n + 1)turn/2) * sin(n * turn/2) / sin(turn/2), which is fine for small turns)
+        double wnRe = Math.cos(n * turn);
+        double wnIm = -Math.sin(n * turn);
+        double half = Math.sin(turn / 2);
+        double ratio = half == 0 ? n : Math.sin(n * turn / 2) / half;
+        double sumWRe = Math.cos((n + 1) * turn / 2) * ratio;
+        double sumWIm = -Math.sin((n + 1) * turn / 2) * ratio;
+
+        // K = q * w / (q - w), with w = cos - i * sin
+        double numRe = q * cos;
+        double numIm = -q * sin;
+        double denRe = q - cos;
+        double denIm = sin;
+        double den = denRe * denRe + denIm * denIm;
+        double kRe = (numRe * denRe + numIm * denIm) / den;
+        double kIm = (numIm * denRe - numRe * denIm) / den;
+
+        // A = a * d_0 * K
+        double aRe = acc * (dirX * kRe - dirY * kIm);
+        double aIm = acc * (dirX * kIm + dirY * kRe);
+
+        // Velocity and position
+        double vRe = qn - wnRe;
+        double vIm = -wnIm;
+        double pRe = sumQ - sumWRe;
+        double pIm = -sumWIm;
+        posX += velX * sumQ + (aRe * pRe - aIm * pIm);
+        posY += velY * sumQ + (aRe * pIm + aIm * pRe);
+        velX = qn * velX + (aRe * vRe - aIm * vIm);
+        velY = qn * velY + (aRe * vIm + aIm * vRe);
+
+        // Direction
+        double ogX = dirX;
+        dirX = wnRe * ogX - wnIm * dirY;
+        dirY = wnRe * dirY + wnIm * ogX;
+    }
+
+    /**
+     * Returns whether or not the given number of steps can be replaced with a jump: jumps have to be turned on, the
+     * velocity cap can't kick in (the speed stays under it even with no friction), the vehicle can't reach the goal,
+     * and the rounding error of both ways of working it out has to be within the tolerance.
+     * @param steps The number of steps
+     * @return Boolean
+     */
+    private boolean canJump(int steps) {
+        if (tolerance <= 0) {
+            return false;
+        }
+        double speed = Math.sqrt(velX * velX + velY * velY);
+        double a = Math.abs(acc) * Math.sqrt(dirX * dirX + dirY * dirY);
+        double reach = reach(steps);
+
+        if (speed + steps * a >= MAX_VELOCITY) {
+            return false;
+        }
+        if (goalRadius >= 0 && Math.sqrt(Math.pow(goalX - posX, 2) + Math.pow(goalY - posY, 2)) <= reach + goalRadius) {
+            return false;
+        }
+        double error = (steps + 16) * Math.ulp(Math.abs(posX) + Math.abs(posY) + reach);
+        return error <= tolerance;
+    }
+
+    /**
+     * Return the number of time steps a control of the given length takes (the same number as stepping through it).
+     * @param time The time of the control
+     * @return The number of steps
+     */
+    private static int steps(double time) {
+        int steps = 0;
+        for (double i = 0; i < time; i += TIME_STEP) {
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * Turn jumps on or off. With jumps on, controls that can't get near an obstacle or the goal are applied all at
+     * once instead of step by step.
+     * @param tolerance How far a jump's result may be from stepping (0 or less turns jumps off)
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Turn the clearance shortcut on or off. With it on, controls that can't get as far as the nearest obstacle (see
+     * World.clearance()) aren't checked for collisions at all, at the cost of working out the world's distance field
+     * the first time. Jumps always use it.
+     * @param clearanceShortcut Boolean
+     */
+    public void setClearanceShortcut(boolean clearanceShortcut) {
+        this.clearanceShortcut = clearanceShortcut;
+    }
+
+    /**
+     * Set the goal, so that jumps are never made where they could get within the given radius of it (a goal check
+     * right on the edge of the goal could come out differently).
+     * @param x The x position of the goal
+     * @param y The y position of the goal
+     * @param radius The radius around the goal (less than 0 for no goal)
+     */
+    public void setGoal(double x, double y, double radius) {
+        goalX = x;
+        goalY = y;
+        goalRadius = radius;
+    }
+
+    /**
+     * Use the same collision mode, tolerance, clearance shortcut and goal as another integrator.
+     * @param other The other integrator
+     */
+    public void copySettings(Integrator other) {
+        mode = other.mode;
+        tolerance = other.tolerance;
+        clearanceShortcut = other.clearanceShortcut;
+        goalX = other.goalX;
+        goalY = other.goalY;
+        goalRadius = other.goalRadius;
+    }
+
+    /**
+     * Return an upper bound on how far the vehicle can get from where it is in the given number of steps under the
+     * current control. Friction and the velocity cap only ever slow the vehicle down, so its speed after k steps is
+     * at most its speed now plus k times the acceleration, and the distance is at most n * v0 + a * n(n + 1) / 2.
+     * @param steps The number of steps
+     * @return The distance
+     */
+    public double reach(int steps) {
+        double v0 = Math.sqrt(velX * velX + velY * velY);
+        double a = Math.abs(acc) * Math.sqrt(dirX * dirX + dirY * dirY);
+        return steps * v0 + a * steps * (steps + 1) / 2.0;
+    }
+
+    public void setCollisionMode(CollisionMode mode) {
+        this.mode = mode;
+    }
+
+    public CollisionMode getCollisionMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,385 @@
+package dirt;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import dirt.DIRT.State;
+
+/**
+ * A library of motion primitives for a discretized set of controls. Turns, accelerations and times are each limited to
+ * a fixed number of bins, and the response of every control is worked out when the library is made.
+ *
+ * As long as the velocity cap doesn't kick in, each time step is linear in the direction and velocity (the direction is
+ * turned by a fixed rotation and the velocity gets the acceleration along it, then friction), so the result of a
+ * control from any starting direction d and velocity v is d times the result from the direction (1, 0) at rest (as
+ * complex numbers), plus v carried along by friction. So for each control the library keeps just that one response,
+ * and applying a primitive is a few multiplications, with no binning of the heading or velocity at all.
+ *
+ * For collision checking, the library also keeps swept footprints: the offsets (from the cell the vehicle starts in)
+ * of every map cell it could pass through with a given acceleration and time, starting from anywhere in a given part
+ * of its cell, with any turn and heading and any velocity in a given cell of a fine grid of velocities. If none of
+ * those cells are blocked, the control can't hit anything (see isClear()). If some are, the footprint can't say, and
+ * the control has to be checked step by step. There are far too many footprints to make them all up front, so they are
+ * made as they are needed and kept in an open addressing table under a long key, which stops taking new ones once it
+ * is full (any others are worked out every time). That makes a library belong to one DIRT run (or thread) at a time.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 2
+ */
+public class MotionPrimitives {
+    // Global constants
+    final static double MAX_TIME = 0.55;
+    final static double MARGIN = 1e-6; // Added around every footprint to cover rounding error
+    final static int SUBCELLS = 4; // Number of parts each cell is split into across and down for the footprints
+    final static int TABLE_SIZE = 1 << 16; // Number of slots in the footprint table (it takes up to 3/4 of that)
+    final static int MAX_CELLS = 1 << 20; // Most footprint cells kept for the whole table
+    final static int MAX_FOOTPRINT = 256; // Footprints covering more cells than this (with overlap) are never clear
+
+    // Field variables
+    private final int turnBins;
+    private final int accBins;
+    private final int timeBins;
+    private final int cellSize; // Width of the map cells the footprints are in
+    private final double velocityStep; // Width of the cells of the grid of starting velocities
+    private final int[] steps; // Number of time steps of each time bin
+    private final double[] response; // Response of each control from (1, 0) at rest: direction, velocity, position
+    private final double[] carry; // For each time bin: q^n (how much velocity is left) and Q (how far it carries)
+    private final int maxSteps; // Number of time steps of the longest time bin
+    private final double[] velocityPath; // Velocity after each step of each turn and acceleration from (1, 0) at rest
+    private final long[] keys; // Key of the footprint in each slot of the table (0 if the slot is empty)
+    private final int[] footprintStart; // Where the footprint in each slot starts in footprintCells
+    private final int[] footprintLength;
+    private final int[] footprintCells; // Cell offsets of every footprint, packed as (column << 16) | (row & 0xFFFF)
+    private int footprints; // Number of footprints in the table
+    private int cellsUsed; // Number of footprintCells used
+    private final int[] scratch = new int[MAX_FOOTPRINT];
+
+    /**
+     * Constructor.
+     * @param world A world with the cell size that the library will be used on
+     * @param turnBins The number of possible turn values (spread evenly from -1 to 1)
+     * @param accBins The number of possible acceleration values (spread evenly from 0 to 0.1, at most 255)
+     * @param timeBins The number of possible control times (spread evenly from 0.05 to 0.55, at most 254)
+     * @param velocityStep The width of the cells of the grid of starting velocities the footprints are made for
+     */
+    public MotionPrimitives(World world, int turnBins, int accBins, int timeBins, double velocityStep) {
+        this.turnBins = turnBins;
+        this.accBins = accBins;
+        this.timeBins = timeBins;
+        this.velocityStep = velocityStep;
+        cellSize = world.getScaleFactor();
+        steps = new int[timeBins];
+        carry = new double[timeBins * 2];
+        response = new double[turnBins * accBins * timeBins * 6];
+        keys = new long[TABLE_SIZE];
+        footprintStart = new int[TABLE_SIZE];
+        footprintLength = new int[TABLE_SIZE];
+        footprintCells = new int[MAX_CELLS];
+
+        for (int t = 0; t < timeBins; t++) {
+            double time = control(0, 0, t)[2];
+
+            for (double i = 0; i < time; i += Integrator.TIME_STEP) {
+                steps[t]++;
+            }
+            double left = 1;
+            double carried = 0;
+
+            for (int k = 0; k < steps[t]; k++) {
+                left *= Integrator.FRICTION;
+                carried += left;
+            }
+            carry[t * 2] = left;
+            carry[t * 2 + 1] = carried;
+        }
+
+        // The response of every control, by integrating it once
+        Integrator integrator = new Integrator();
+        maxSteps = steps[timeBins - 1];
+        velocityPath = new double[turnBins * accBins * maxSteps * 2];
+
+        for (int c = 0; c < turnBins * accBins; c++) {
+            double[] u = control(c / accBins, c % accBins, timeBins - 1);
+            integrator.load(1, 0, 0, 0, 0, 0);
+            integrator.setControl(u[0], u[1]);
+
+            for (int k = 0; k < maxSteps; k++) {
+                integrator.step();
+                velocityPath[(c * maxSteps + k) * 2] = integrator.velX;
+                velocityPath[(c * maxSteps + k) * 2 + 1] = integrator.velY;
+            }
+        }
+
+        for (int c = 0; c < turnBins * accBins * timeBins; c++) {
+            double[] u = control(c / (accBins * timeBins), c / timeBins % accBins, c % timeBins);
+            integrator.load(1, 0, 0, 0, 0, 0);
+            integrator.setControl(u[0], u[1]);
+
+            for (int k = 0; k < steps[c % timeBins]; k++) {
+                integrator.step();
+            }
+            response[c * 6] = integrator.dirX;
+            response[c * 6 + 1] = integrator.dirY;
+            response[c * 6 + 2] = integrator.velX;
+            response[c * 6 + 3] = integrator.velY;
+            response[c * 6 + 4] = integrator.posX;
+            response[c * 6 + 5] = integrator.posY;
+        }
+    }
+
+    /**
+     * Overloaded constructor (a library with 9 turns, 5 accelerations, 10 times and a velocity grid 0.05 wide).
+     */
+    public MotionPrimitives(World world) {
+        this(world, 9, 5, 10, 0.05);
+    }
+
+    /**
+     * Work out the cells of a footprint. At step k, the vehicle is v * Q_k + d * R_k from where it started, where Q_k
+     * is how far friction lets the starting velocity carry it and R_k (from the acceleration) is no longer than
+     * a * (Q_1 + ... + Q_k) whatever the turn and heading. So the vehicle stays inside a circle around the middle of
+     * the velocity grid cell times Q_k, as wide as that plus how far the velocity can be from the middle times Q_k.
+     * The cells of the box around each pair of circles in a row (which holds the straight line between them) are
+     * added, with the box stretched by the part of the cell the vehicle starts in.
+     * @param accBin The acceleration bin
+     * @param timeBin The time bin
+     * @param velXBin The column of the velocity grid
+     * @param velYBin The row of the velocity grid
+     * @param subX The part of its cell the vehicle starts in across
+     * @param subY The part of its cell the vehicle starts in down
+     * @param cells Where to write the packed cell offsets
+     * @param from Where in cells to start writing
+     * @return The number of cells, or -1 if the boxes cover more than MAX_FOOTPRINT (or than cells has room for)
+     */
+    private int sweep(int accBin, int timeBin, int velXBin, int velYBin, int subX, int subY, int[] cells, int from) {
+        double acc = control(0, accBin, timeBin)[1];
+        double velX = velXBin * velocityStep;
+        double velY = velYBin * velocityStep;
+        double velError = velocityStep * Math.sqrt(2) / 2;
+        double part = (double) cellSize / SUBCELLS;
+        double left = 1;
+        double carried = 0;
+        double reach = 0;
+        double lastX = 0;
+        double lastY = 0;
+        double lastRadius = 0;
+        int end = Math.min(cells.length, from + MAX_FOOTPRINT);
+        int n = from;
+
+        for (int k = 0; k < steps[timeBin]; k++) {
+            left *= Integrator.FRICTION;
+            carried += left;
+            reach += acc * carried;
+            double x = velX * carried;
+            double y = velY * carried;
+            double radius = (reach + velError * carried) * (1 + 1e-9) + MARGIN;
+
+            // Touching the edge of a blocked cell counts as hitting it, so the margin decides the cells on the edges
+            int minCol = (int) Math.floor((subX * part + Math.min(lastX - lastRadius, x - radius) - MARGIN) / cellSize);
+            int maxCol = (int) Math.floor(((subX + 1) * part + Math.max(lastX + lastRadius, x + radius)) / cellSize);
+            int minRow = (int) Math.floor((subY * part + Math.min(lastY - lastRadius, y - radius) - MARGIN) / cellSize);
+            int maxRow = (int) Math.floor(((subY + 1) * part + Math.max(lastY + lastRadius, y + radius)) / cellSize);
+
+            for (int col = minCol; col <= maxCol; col++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    if (n == end) {
+                        return -1;
+                    }
+                    cells[n++] = (col << 16) | (row & 0xFFFF);
+                }
+            }
+            lastX = x;
+            lastY = y;
+            lastRadius = radius;
+        }
+
+        // The boxes overlap, so keep each cell once
+        Arrays.sort(cells, from, n);
+        int unique = from;
+
+        for (int i = from; i < n; i++) {
+            if (unique == from || cells[i] != cells[unique - 1]) {
+                cells[unique++] = cells[i];
+            }
+        }
+        return unique - from;
+    }
+
+    /**
+     * Return a random control from the discretized set.
+     * @param r The random number generator to use
+     * @return A control (turn, acceleration, time)
+     */
+    public double[] randomControl(Random r) {
+        return control(r.nextInt(turnBins), r.nextInt(accBins), r.nextInt(timeBins));
+    }
+
+    /**
+     * Return the control for the given bins.
+     * @param turnBin The turn bin
+     * @param accBin The acceleration bin
+     * @param timeBin The time bin
+     * @return The control (turn, acceleration, time)
+     */
+    public double[] control(int turnBin, int accBin, int timeBin) {
+        double turn = turnBins == 1 ? 0 : -1 + 2.0 * turnBin / (turnBins - 1);
+        double acc = accBins == 1 ? 0 : 0.1 * accBin / (accBins - 1);
+        double time = 0.05 + (MAX_TIME - 0.05) * (timeBin + 0.5) / timeBins;
+        return new double[] {turn, acc, time};
+    }
+
+    /**
+     * Apply the primitive of a control to a state, writing where the vehicle ends up into the given State, if the
+     * velocity cap can't kick in during the control (so the primitive is exact). If it can, the control has to be
+     * integrated instead.
+     * @param u A control from this library
+     * @param dirX The x value of the starting direction
+     * @param dirY The y value of the starting direction
+     * @param velX The x value of the starting velocity
+     * @param velY The y value of the starting velocity
+     * @param posX The x value of the starting position
+     * @param posY The y value of the starting position
+     * @param out The State to write the direction, velocity and position into
+     * @return Whether or not the primitive was applied
+     */
+    public boolean apply(double[] u, double dirX, double dirY, double velX, double velY, double posX, double posY,
+            State out) {
+        int turnBin = turnBins == 1 ? 0 : (int) Math.round((u[0] + 1) * (turnBins - 1) / 2);
+        int accBin = accBins == 1 ? 0 : (int) Math.round(u[1] * (accBins - 1) / 0.1);
+        int timeBin = (int) Math.round((u[2] - 0.05) * timeBins / (MAX_TIME - 0.05) - 0.5);
+        double left = carry[timeBin * 2];
+        double carried = carry[timeBin * 2 + 1];
+
+        // After k steps a velocity value is at most q^k * v + A * Q_k (A being the acceleration times the length of
+        // the direction), which only ever goes one way as k grows, so it is highest after the first or the last step
+        double a = Math.sqrt(dirX * dirX + dirY * dirY) * u[1];
+        double q = Integrator.FRICTION;
+        double limit = Integrator.MAX_VELOCITY - MARGIN;
+
+        if (Math.max(velX * q + a * q, velX * left + a * carried) >= limit
+                || Math.max(velY * q + a * q, velY * left + a * carried) >= limit) {
+            // That is loose unless the vehicle accelerates straight along the axis, so check every step exactly
+            int path = (turnBin * accBins + accBin) * maxSteps * 2;
+            double kept = 1;
+
+            for (int k = 0; k < steps[timeBin]; k++) {
+                kept *= q;
+                double stepX = velocityPath[path + k * 2];
+                double stepY = velocityPath[path + k * 2 + 1];
+
+                if (velX * kept + dirX * stepX - dirY * stepY >= limit
+                        || velY * kept + dirX * stepY + dirY * stepX >= limit) {
+                    return false;
+                }
+            }
+        }
+
+        // Turn the response to the starting direction (multiplying them as complex numbers) and add the velocity
+        int at = ((turnBin * accBins + accBin) * timeBins + timeBin) * 6;
+        out.direction.x = dirX * response[at] - dirY * response[at + 1];
+        out.direction.y = dirX * response[at + 1] + dirY * response[at];
+        out.velocity.x = velX * left + dirX * response[at + 2] - dirY * response[at + 3];
+        out.velocity.y = velY * left + dirX * response[at + 3] + dirY * response[at + 2];
+        out.position.x = posX + velX * carried + dirX * response[at + 4] - dirY * response[at + 5];
+        out.position.y = posY + velY * carried + dirX * response[at + 5] + dirY * response[at + 4];
+        return true;
+    }
+
+    /**
+     * Returns whether or not a control is sure to stay clear of every obstacle and the edges of the world from the
+     * given state, because none of the cells of its footprint are blocked or off of the map. This holds however the
+     * trajectory is checked (point by point or swept), as long as the primitive can be applied (see apply()). If the
+     * starting direction is longer than 1 or the footprint is too big, this returns false.
+     * @param u A control from this library
+     * @param world The world (with the cell size this library was made for)
+     * @param dirX The x value of the starting direction
+     * @param dirY The y value of the starting direction
+     * @param velX The x value of the starting velocity
+     * @param velY The y value of the starting velocity
+     * @param posX The x value of the starting position
+     * @param posY The y value of the starting position
+     * @return Boolean
+     */
+    public boolean isClear(double[] u, World world, double dirX, double dirY, double velX, double velY, double posX,
+            double posY) {
+        int accBin = accBins == 1 ? 0 : (int) Math.round(u[1] * (accBins - 1) / 0.1);
+        int timeBin = (int) Math.round((u[2] - 0.05) * timeBins / (MAX_TIME - 0.05) - 0.5);
+        long velXBin = Math.round(velX / velocityStep);
+        long velYBin = Math.round(velY / velocityStep);
+
+        if (dirX * dirX + dirY * dirY > 1 + 1e-9 || velXBin != (short) velXBin || velYBin != (short) velYBin) {
+            return false;
+        }
+        int col = world.cellOf(posX);
+        int row = world.cellOf(posY);
+        int subX = Math.min(SUBCELLS - 1, (int) ((posX - (double) col * cellSize) * SUBCELLS / cellSize));
+        int subY = Math.min(SUBCELLS - 1, (int) ((posY - (double) row * cellSize) * SUBCELLS / cellSize));
+        long key = ((long) accBin << 56) | ((long) (timeBin + 1) << 48) | ((velXBin & 0xFFFF) << 32)
+            | ((velYBin & 0xFFFF) << 16) | (subX << 8) | subY;
+
+        // Find the footprint in the table, or make it (in the table if there is room, otherwise just this once)
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 48) & (TABLE_SIZE - 1);
+
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        int[] cells = footprintCells;
+        int start;
+        int length;
+
+        if (keys[slot] == key) {
+            start = footprintStart[slot];
+            length = footprintLength[slot];
+        } else if (footprints < TABLE_SIZE / 4 * 3 && cellsUsed + MAX_FOOTPRINT <= MAX_CELLS) {
+            start = cellsUsed;
+            length = sweep(accBin, timeBin, (int) velXBin, (int) velYBin, subX, subY, footprintCells, start);
+            keys[slot] = key;
+            footprintStart[slot] = start;
+            footprintLength[slot] = length;
+            footprints++;
+            cellsUsed += Math.max(length, 0);
+        } else {
+            cells = scratch;
+            start = 0;
+            length = sweep(accBin, timeBin, (int) velXBin, (int) velYBin, subX, subY, scratch, 0);
+        }
+        if (length == -1) {
+            return false;
+        }
+        int cols = world.getCols();
+        int rows = world.getRows();
+
+        for (int i = start; i < start + length; i++) {
+            int c = col + (cells[i] >> 16);
+            int r = row + (short) cells[i];
+
+            if (c < 0 || c >= cols || r < 0 || r >= rows || world.isBlocked(c, r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the width of the map cells that this library's footprints are in.
+     * @return The cell size
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Return the number of footprints kept in the table so far.
+     * @return The number of footprints
+     */
+    public int size() {
+        return footprints;
+    }
+
+    /**
+     * Return the number of footprint cells kept in the table so far.
+     * @return The number of cells
+     */
+    public int cells() {
+        return cellsUsed;
+    }
+}
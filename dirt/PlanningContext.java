@@ -0,0 +1,150 @@
+package dirt;
+
+import dirt.DIRT.State;
+
+/**
+ * Everything a single DIRT run needs to know about the problem it is solving: the goal state, whether the goal check
+ * includes velocity and direction, and the world. The heuristic and the goal check are worked out from here instead of
+ * from static fields, so any number of DIRT runs with different goals can run at the same time on separate threads.
+ * The heuristic can also take the walls into account, using the world's wavefront from the goal. A context never
+ * changes once it has been made (the goal is copied in), so it can be shared freely.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class PlanningContext {
+    // Field variables
+    private final State goal;
+    private final boolean fullGoalCheck;
+    private final World world;
+    private final boolean obstacleAware;
+    private final int[] goalSteps; // Steps from each map cell to the goal (null if the walls can't be used)
+
+    /**
+     * Constructor.
+     * @param goal The goal state (copied, so changing it afterwards has no effect)
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     * @param world The world (null if only the heuristic is needed)
+     */
+    public PlanningContext(State goal, boolean fullGoalCheck, World world) {
+        this(goal, fullGoalCheck, world, false);
+    }
+
+    /**
+     * Overloaded constructor (choose whether or not the heuristic takes the walls into account).
+     * @param goal The goal state (copied, so changing it afterwards has no effect)
+     * @param fullGoalCheck Whether to check velocity and direction of the goal state or not
+     * @param world The world (null if only the heuristic is needed)
+     * @param obstacleAware Whether to use the distance around the walls to the goal instead of the straight-line
+     * distance when it is longer (needs the world)
+     */
+    public PlanningContext(State goal, boolean fullGoalCheck, World world, boolean obstacleAware) {
+        this.goal = goal.copyState();
+        this.fullGoalCheck = fullGoalCheck;
+        this.world = world;
+        this.obstacleAware = obstacleAware;
+        goalSteps = obstacleAware && world != null
+            ? world.goalSteps(goal.position.x, goal.position.y, DIRT.WAYPOINT_RADIUS) : null;
+    }
+
+    /**
+     * Returns whether or not a state is close enough to the goal to count as reaching it.
+     * @param x The state
+     * @return Boolean
+     */
+    public boolean atGoal(State x) {
+        return atGoal(x, distance(x, goal));
+    }
+
+    /**
+     * Returns whether or not a state is close enough to the goal to count as reaching it, given its distance to the
+     * goal (the angle is only worked out when the state is in range).
+     */
+    private boolean atGoal(State x, double dis) {
+        if (dis > DIRT.WAYPOINT_RADIUS) {
+            return false;
+        } else if (!fullGoalCheck) {
+            return true;
+        }
+        double diffDir = Math.abs(x.getAngle() - goal.getAngle());
+        double diffVelX = Math.abs(goal.velocity.x - x.velocity.x);
+        double diffVelY = Math.abs(goal.velocity.y - x.velocity.y);
+
+        return diffDir <= 0.5 && diffVelX <= 0.5 && diffVelY <= 0.5;
+    }
+
+    /**
+     * Heuristic function that returns the estimated time (lower bound) from a state to the goal state. The distance
+     * is turned into a time with the same kinematic bound whether or not the walls are taken into account: the bound
+     * only grows with the distance, and the wavefront distance is never longer than the shortest path around the walls,
+     * so it stays as much of a lower bound as the straight-line one.
+     * @param x The state
+     * @return The estimated time to the goal
+     */
+    public double h(State x) {
+        double straight = distance(x, goal);
+        double dis = straight;
+        double time;
+
+        // The vehicle has to go around the walls, so it has at least as far to go as the wavefront says
+        if (goalSteps != null) {
+            dis = Math.max(dis, world.goalDistance(goalSteps, x.position.x, x.position.y));
+        }
+
+        // Return 0 if the state is in range of the goal; otherwise, return the lower-bound on time between the states
+        if (atGoal(x, straight)) {
+            time = 0;
+        } else if (fullGoalCheck) {
+            double v = Math.sqrt(Math.pow(goal.velocity.x, 2) + Math.pow(goal.velocity.y, 2));
+            double vo = Math.sqrt(Math.pow(x.velocity.x, 2) + Math.pow(x.velocity.y, 2));
+            time = (dis * 2) / (v + vo);
+        } else {
+            double vo = Math.sqrt(Math.pow(x.velocity.x, 2) + Math.pow(x.velocity.y, 2));
+            double underRad = 2 * -dis;
+            double timePlus = (-vo + Math.sqrt(Math.pow(vo, 2) - underRad));
+            double timeMinus = (-vo - Math.sqrt(Math.pow(vo, 2) - underRad));
+
+            if (timePlus > 0) {
+                time = timePlus;
+            } else {
+                time = timeMinus;
+            }
+        }
+
+        return time;
+    }
+
+    /**
+     * Return the distance between two states.
+     */
+    private static double distance(State x, State x2) {
+        return Math.sqrt(Math.pow(x2.position.x - x.position.x, 2) + Math.pow(x2.position.y - x.position.y, 2));
+    }
+
+    /**
+     * Return a copy of the goal state.
+     * @return The goal
+     */
+    public State getGoal() {
+        return goal.copyState();
+    }
+
+    public double getGoalX() {
+        return goal.position.x;
+    }
+
+    public double getGoalY() {
+        return goal.position.y;
+    }
+
+    public boolean isFullGoalCheck() {
+        return fullGoalCheck;
+    }
+
+    public boolean isObstacleAware() {
+        return obstacleAware;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+}
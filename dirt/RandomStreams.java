@@ -0,0 +1,114 @@
+package dirt;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A tree of independent random number streams derived from one master seed. Each part of a problem (a leg, a heading
+ * and velocity candidate, a worker thread) gets its own child, found by hashing its index into the parent's seed, and
+ * each child hands out a separate stream for every purpose that DIRT uses random numbers for. Since a stream only
+ * depends on the master seed and the path of indices to it, and never on which other streams were used before it or on
+ * which thread uses it, runs made this way give the same results no matter how many threads they are spread across,
+ * as long as they don't share anything else that depends on timing (like a SharedIncumbent).
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class RandomStreams {
+    // Global constants
+    final static long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // Odd constant for spreading out indices (as in SplittableRandom)
+
+    /**
+     * The things DIRT uses random numbers for: sampling points, making controls and selecting from nearby states.
+     */
+    public enum Purpose {
+        SAMPLE, CONTROL, SELECTION
+    }
+
+    // Field variables
+    private final long seed;
+
+    /**
+     * Constructor.
+     * @param seed The master seed
+     */
+    public RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Return the streams for a part of the problem.
+     * @param index The index of the part (Ex. the number of a leg, a candidate or a worker)
+     * @return The child streams
+     */
+    public RandomStreams child(long index) {
+        return new RandomStreams(mix(seed + (index + 1) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Return a new random number generator for a purpose. Calling this twice with the same purpose gives two
+     * generators that make the same numbers.
+     * @param purpose The purpose
+     * @return The generator
+     */
+    public Random stream(Purpose purpose) {
+        return new StreamRandom(new SplittableRandom(mix(seed ^ mix(purpose.ordinal() + 1))));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Scramble the bits of a value (David Stafford's variant 13 of the MurmurHash3 finalizer).
+     * @param z The value
+     * @return The scrambled value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A Random that gets its numbers from a SplittableRandom, so it can be used anywhere DIRT takes a Random. It isn't
+     * meant to be shared between threads (each thread gets its own stream instead).
+     */
+    static class StreamRandom extends Random {
+        private static final long serialVersionUID = 1L;
+        private final SplittableRandom source;
+
+        StreamRandom(SplittableRandom source) {
+            this.source = source;
+        }
+
+        @Override
+        protected int next(int bits) {
+            return source.nextInt() >>> (32 - bits);
+        }
+
+        @Override
+        public int nextInt() {
+            return source.nextInt();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return source.nextInt(bound);
+        }
+
+        @Override
+        public long nextLong() {
+            return source.nextLong();
+        }
+
+        @Override
+        public double nextDouble() {
+            return source.nextDouble();
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return source.nextBoolean();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package dirt;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The best solution cost found so far by any of a group of DIRT runs, shared between threads without locking. Each
+ * run only admits new states whose path quality could still beat this cost, so one run finding a good solution
+ * speeds up all of the others. It also holds an optional deadline for the whole group.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class SharedIncumbent {
+    // Field variables
+    private final AtomicLong bestCost; // The bits of the best cost (a double)
+    private final long deadline; // System.nanoTime() value to stop at (Long.MAX_VALUE for none)
+
+    /**
+     * Constructor.
+     * @param timeBudget The time the group of runs has, in nanoseconds (0 or less for no limit)
+     */
+    public SharedIncumbent(long timeBudget) {
+        bestCost = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        deadline = timeBudget > 0 ? System.nanoTime() + timeBudget : Long.MAX_VALUE;
+    }
+
+    /**
+     * Overloaded constructor (no time limit).
+     */
+    public SharedIncumbent() {
+        this(0);
+    }
+
+    /**
+     * Return the best solution cost found so far (infinity if there isn't one yet).
+     * @return The cost
+     */
+    public double getCost() {
+        return Double.longBitsToDouble(bestCost.get());
+    }
+
+    /**
+     * Report a solution cost, which replaces the best cost if it is lower.
+     * @param cost The cost of the solution
+     * @return Whether or not it was the new best cost
+     */
+    public boolean offer(double cost) {
+        long current = bestCost.get();
+
+        while (cost < Double.longBitsToDouble(current)) {
+            if (bestCost.compareAndSet(current, Double.doubleToLongBits(cost))) {
+                return true;
+            }
+            current = bestCost.get();
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not the deadline has passed.
+     * @return Boolean
+     */
+    public boolean isExpired() {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+}
@@ -0,0 +1,280 @@
+package dirt;
+
+import java.util.Arrays;
+
+/**
+ * Timers and counters for what DIRT spends its time on while it solves: the time spent in each phase of an iteration
+ * (selecting a state, blossoming, propagating edge candidates, updating dominance regions and pruning), how many
+ * controls were propagated and how many of them collided, how many states were pruned or evicted, how the tree grew,
+ * and which iterations found the first and best solutions. DIRT only records these when it has been given a
+ * SolveMetrics (see DIRT.setMetrics()), so they cost nothing otherwise. The metrics of several solves can be added
+ * together, and they can be written out as JSON.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class SolveMetrics {
+    // Global constants
+    final static int TREE_SIZE_INTERVAL = 100; // Number of iterations between samples of the tree size
+
+    /**
+     * The phases of a DIRT iteration. OTHER is everything else in the loop (the stopping checks and keeping track of
+     * the solution). Collision checks happen in between the steps of a propagation, so they are part of PROPAGATION.
+     */
+    public enum Phase {
+        SELECTION, BLOSSOM, PROPAGATION, DOMINANCE, PRUNING, OTHER
+    }
+
+    // Field variables
+    private long[] phaseNanos = new long[Phase.values().length];
+    private long totalNanos;
+    private long lap; // System.nanoTime() value when the current phase started
+    private long start; // System.nanoTime() value when the current solve started
+    private int solves;
+    private int solved; // Number of solves that found a solution
+    private long iterations;
+    private long propagations;
+    private long collisions;
+    private long pruned;
+    private long evicted;
+    private long firstSolutionIterations; // Summed over the solves that found a solution
+    private long bestSolutionIterations;
+    private int firstSolution = -1; // Iteration of the current solve's first and best solutions (-1 if none yet)
+    private int bestSolution = -1;
+    private int peakTreeSize;
+    private int[] treeSizes = new int[16]; // Iteration and tree size pairs (only for a single solve)
+    private int samples;
+
+    /**
+     * Start timing a solve.
+     */
+    void begin() {
+        start = System.nanoTime();
+        lap = start;
+        firstSolution = -1;
+        bestSolution = -1;
+        solves++;
+    }
+
+    /**
+     * Stop timing a solve.
+     * @param i The number of iterations the solve ran for
+     * @param treeSize The number of states in the tree that haven't been pruned
+     */
+    void end(int i, int treeSize) {
+        totalNanos += System.nanoTime() - start;
+        sampleTreeSize(i, treeSize);
+
+        if (bestSolution != -1) {
+            solved++;
+            firstSolutionIterations += firstSolution;
+            bestSolutionIterations += bestSolution;
+        }
+    }
+
+    /**
+     * Charge the time since the last lap to a phase, and start timing the next one.
+     * @param phase The phase that just finished
+     */
+    void lap(Phase phase) {
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - lap;
+        lap = now;
+    }
+
+    /**
+     * Count an iteration of the current solve.
+     * @param i The number of the iteration (counting from 0)
+     * @param treeSize The number of states in the tree that haven't been pruned
+     */
+    void iteration(int i, int treeSize) {
+        iterations++;
+
+        if (i % TREE_SIZE_INTERVAL == 0) {
+            sampleTreeSize(i, treeSize);
+        }
+    }
+
+    /**
+     * Count a propagated control.
+     * @param safe Whether or not it avoided collisions
+     */
+    void propagated(boolean safe) {
+        propagations++;
+
+        if (!safe) {
+            collisions++;
+        }
+    }
+
+    /**
+     * Count a pruned state.
+     */
+    void pruned() {
+        pruned++;
+    }
+
+    /**
+     * Count a state evicted to keep the tree under its limit.
+     */
+    void evicted() {
+        evicted++;
+    }
+
+    /**
+     * Note that the current solve found a new best solution.
+     * @param i The number of the iteration it was found in
+     */
+    void solution(int i) {
+        if (firstSolution == -1) {
+            firstSolution = i;
+        }
+        bestSolution = i;
+    }
+
+    /**
+     * Record the size of the tree.
+     */
+    private void sampleTreeSize(int i, int treeSize) {
+        peakTreeSize = Math.max(peakTreeSize, treeSize);
+
+        if (samples > 0 && treeSizes[samples * 2 - 2] == i) {
+            return;
+        }
+        if (samples * 2 == treeSizes.length) {
+            treeSizes = Arrays.copyOf(treeSizes, treeSizes.length * 2);
+        }
+        treeSizes[samples * 2] = i;
+        treeSizes[samples * 2 + 1] = treeSize;
+        samples++;
+    }
+
+    /**
+     * Add the metrics of other solves to these ones. The tree sizes over time are only kept for single solves, so
+     * they are dropped here.
+     * @param other The other metrics
+     */
+    public void add(SolveMetrics other) {
+        for (int p = 0; p < phaseNanos.length; p++) {
+            phaseNanos[p] += other.phaseNanos[p];
+        }
+        totalNanos += other.totalNanos;
+        solves += other.solves;
+        solved += other.solved;
+        iterations += other.iterations;
+        propagations += other.propagations;
+        collisions += other.collisions;
+        pruned += other.pruned;
+        evicted += other.evicted;
+        firstSolutionIterations += other.firstSolutionIterations;
+        bestSolutionIterations += other.bestSolutionIterations;
+        peakTreeSize = Math.max(peakTreeSize, other.peakTreeSize);
+        samples = 0;
+    }
+
+    /**
+     * Return the time spent in a phase.
+     * @param phase The phase
+     * @return The time in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public int getSolves() {
+        return solves;
+    }
+
+    public int getSolved() {
+        return solved;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public long getPropagations() {
+        return propagations;
+    }
+
+    public long getCollisions() {
+        return collisions;
+    }
+
+    public long getPruned() {
+        return pruned;
+    }
+
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public int getPeakTreeSize() {
+        return peakTreeSize;
+    }
+
+    /**
+     * Return the iteration the first solution was found in, on average over the solves that found one.
+     * @return The iteration (-1 if no solve found a solution)
+     */
+    public double getFirstSolutionIteration() {
+        return solved == 0 ? -1 : (double) firstSolutionIterations / solved;
+    }
+
+    /**
+     * Return the iteration the best solution was found in, on average over the solves that found one.
+     * @return The iteration (-1 if no solve found a solution)
+     */
+    public double getBestSolutionIteration() {
+        return solved == 0 ? -1 : (double) bestSolutionIterations / solved;
+    }
+
+    /**
+     * Return the metrics as a JSON object.
+     * @return The JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"solves\":").append(solves);
+        json.append(",\"solved\":").append(solved);
+        json.append(",\"totalNanos\":").append(totalNanos);
+        json.append(",\"phaseNanos\":{");
+
+        for (Phase p : Phase.values()) {
+            if (p.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(p.name().toLowerCase()).append("\":").append(phaseNanos[p.ordinal()]);
+        }
+        json.append("},\"iterations\":").append(iterations);
+        json.append(",\"propagations\":").append(propagations);
+        json.append(",\"collisions\":").append(collisions);
+        json.append(",\"pruned\":").append(pruned);
+        json.append(",\"evicted\":").append(evicted);
+        json.append(",\"firstSolutionIteration\":").append(getFirstSolutionIteration());
+        json.append(",\"bestSolutionIteration\":").append(getBestSolutionIteration());
+        json.append(",\"peakTreeSize\":").append(peakTreeSize);
+
+        // Tree size over time, as [iteration, size] pairs
+        if (samples > 0) {
+            json.append(",\"treeSize\":[");
+
+            for (int s = 0; s < samples; s++) {
+                if (s > 0) {
+                    json.append(',');
+                }
+                json.append('[').append(treeSizes[s * 2]).append(',').append(treeSizes[s * 2 + 1]).append(']');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,428 @@
+package dirt;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of buckets over the positions of the states in a tree, so that DIRT can find the states near a point
+ * without walking the whole tree. States are referred to by integer ids, and ties are always broken by the lower id,
+ * so ids handed out in the order states are added to the tree give the same answers as walking the tree in order. If
+ * ids get reused, each id can be given a serial number (see setSerial()), and then results are ordered and ties are
+ * broken by serial number instead. For finding the states whose DIR contains a point, every state is also put into one
+ * of several coarser grids by the size of its DIR, where the cells are at least as wide as the DIR radii in them.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class SpatialGrid {
+    // Field variables
+    private final double cellSize;
+    private final int cols;
+    private final int rows;
+    private int[][] buckets; // The ids of the states in each cell
+    private int[] bucketSizes;
+    private double[] xs; // Position and DIR radius of each id
+    private double[] ys;
+    private double[] radii;
+    private int[] cellOf; // The cell each id is in (-1 if it isn't in the grid)
+    private int[][][] levelBuckets; // The ids in each cell of each radius level (2^level times as wide as grid cells)
+    private int[][] levelSizes;
+    private int[] levelCounts; // Number of ids in each radius level
+    private int[] levelOf; // The radius level each id is in
+    private int[] levelCellOf; // The cell of its radius level each id is in
+    private int[] serials; // Serial number of each id (null to order by id)
+    private long[] keys; // Scratch space for sorting results by serial number
+    private double maxRadius; // Upper bound on the DIR radius of every state ever added
+    private int[] hits; // Results of the last query
+    private int hitCount;
+
+    /**
+     * Constructor.
+     * @param worldWidth The width of the world
+     * @param worldHeight The height of the world
+     * @param cellSize The width and height of each grid cell
+     */
+    public SpatialGrid(int worldWidth, int worldHeight, double cellSize) {
+        this.cellSize = cellSize;
+        cols = Math.max(1, (int) Math.ceil(worldWidth / cellSize));
+        rows = Math.max(1, (int) Math.ceil(worldHeight / cellSize));
+        buckets = new int[cols * rows][];
+        bucketSizes = new int[cols * rows];
+        xs = new double[64];
+        ys = new double[64];
+        radii = new double[64];
+        cellOf = new int[64];
+        Arrays.fill(cellOf, -1);
+        levelOf = new int[64];
+        levelCellOf = new int[64];
+        hits = new int[64];
+        maxRadius = 0;
+
+        // Halve the grid until the top level is a single cell, which takes every DIR too big for the others
+        int levels = 1;
+
+        while ((cols - 1) >> (levels - 1) > 0 || (rows - 1) >> (levels - 1) > 0) {
+            levels++;
+        }
+        levelBuckets = new int[levels][][];
+        levelSizes = new int[levels][];
+        levelCounts = new int[levels];
+
+        for (int level = 0; level < levels; level++) {
+            int cells = (((cols - 1) >> level) + 1) * (((rows - 1) >> level) + 1);
+            levelBuckets[level] = new int[cells][];
+            levelSizes[level] = new int[cells];
+        }
+    }
+
+    /**
+     * Add a state to the grid.
+     * @param id The id of the state
+     * @param x The x position of the state
+     * @param y The y position of the state
+     * @param radius The DIR radius of the state
+     */
+    public void insert(int id, double x, double y, double radius) {
+        if (id >= cellOf.length) {
+            int size = Math.max(id + 1, cellOf.length * 2);
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+            radii = Arrays.copyOf(radii, size);
+            int oldSize = cellOf.length;
+            cellOf = Arrays.copyOf(cellOf, size);
+            Arrays.fill(cellOf, oldSize, size, -1);
+            levelOf = Arrays.copyOf(levelOf, size);
+            levelCellOf = Arrays.copyOf(levelCellOf, size);
+        }
+
+        int cell = cellIndex(col(x), row(y));
+        buckets[cell] = add(buckets[cell], bucketSizes[cell]++, id);
+
+        xs[id] = x;
+        ys[id] = y;
+        cellOf[id] = cell;
+        radii[id] = radius;
+        addToLevel(id, level(radius));
+
+        if (radius > maxRadius) {
+            maxRadius = radius;
+        }
+    }
+
+    /**
+     * Give an id a serial number to order it by instead of the id itself. Once this has been called, every id in the
+     * grid needs a serial number.
+     * @param id The id of the state
+     * @param serial The serial number
+     */
+    public void setSerial(int id, int serial) {
+        if (serials == null) {
+            serials = new int[cellOf.length];
+            keys = new long[hits.length];
+        } else if (serials.length <= id) {
+            serials = Arrays.copyOf(serials, Math.max(id + 1, serials.length * 2));
+        }
+        serials[id] = serial;
+    }
+
+    /**
+     * Returns whether or not the ids have been given serial numbers.
+     * @return Boolean
+     */
+    public boolean hasSerials() {
+        return serials != null;
+    }
+
+    /**
+     * Remove a state from the grid.
+     * @param id The id of the state
+     */
+    public void remove(int id) {
+        int cell = cellOf[id];
+
+        if (cell < 0) {
+            return;
+        }
+
+        removeFrom(buckets[cell], bucketSizes[cell]--, id);
+        removeFromLevel(id);
+        cellOf[id] = -1;
+    }
+
+    /**
+     * Update the DIR radius of a state in the grid.
+     * @param id The id of the state
+     * @param radius The new radius
+     */
+    public void setRadius(int id, double radius) {
+        radii[id] = radius;
+        int level = level(radius);
+
+        // Move it to the level for its new size (only once it is two levels smaller, since it can stay in cells that
+        // are too big, and radii often go back and forth a little)
+        if (cellOf[id] >= 0 && (level > levelOf[id] || level < levelOf[id] - 1)) {
+            removeFromLevel(id);
+            addToLevel(id, level);
+        }
+
+        if (radius > maxRadius) {
+            maxRadius = radius;
+        }
+    }
+
+    /**
+     * Find all of the states within the given distance of a point. The ids can be read with getHit() afterwards, and
+     * are in increasing order.
+     * @param x The x position of the point
+     * @param y The y position of the point
+     * @param radius The distance to search
+     * @return The number of states found
+     */
+    public int queryRadius(double x, double y, double radius) {
+        hitCount = 0;
+        int minCol = col(x - radius);
+        int maxCol = col(x + radius);
+        int minRow = row(y - radius);
+        int maxRow = row(y + radius);
+
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                int cell = cellIndex(c, r);
+                int[] bucket = buckets[cell];
+
+                for (int i = 0; i < bucketSizes[cell]; i++) {
+                    int id = bucket[i];
+
+                    if (distance(x, y, xs[id], ys[id]) <= radius) {
+                        addHit(id);
+                    }
+                }
+            }
+        }
+        sortHits();
+        return hitCount;
+    }
+
+    /**
+     * Find all of the states whose DIR contains the given point. In each radius level, the DIR radii are no bigger than
+     * the cells are wide, so only the cell the point is in and the ones around it need to be searched. The ids can be
+     * read with getHit() afterwards, and are in increasing order.
+     * @param x The x position of the point
+     * @param y The y position of the point
+     * @return The number of states found
+     */
+    public int queryContaining(double x, double y) {
+        hitCount = 0;
+        int col = col(x);
+        int row = row(y);
+
+        for (int level = 0; level < levelCounts.length; level++) {
+            if (levelCounts[level] == 0) {
+                continue;
+            }
+            int levelCols = ((cols - 1) >> level) + 1;
+            int levelRows = ((rows - 1) >> level) + 1;
+            int minCol = Math.max(0, (col >> level) - 1);
+            int maxCol = Math.min(levelCols - 1, (col >> level) + 1);
+            int minRow = Math.max(0, (row >> level) - 1);
+            int maxRow = Math.min(levelRows - 1, (row >> level) + 1);
+
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = minCol; c <= maxCol; c++) {
+                    int cell = r * levelCols + c;
+                    int[] bucket = levelBuckets[level][cell];
+
+                    for (int i = 0; i < levelSizes[level][cell]; i++) {
+                        int id = bucket[i];
+
+                        if (distance(x, y, xs[id], ys[id]) <= radii[id]) {
+                            addHit(id);
+                        }
+                    }
+                }
+            }
+        }
+        sortHits();
+        return hitCount;
+    }
+
+    /**
+     * Find the state closest to a point, searching outwards from the point's cell one ring of cells at a time.
+     * @param x The x position of the point
+     * @param y The y position of the point
+     * @return The id of the closest state (the lowest id or serial number if there is a tie), or -1 if the grid is empty
+     */
+    public int nearest(double x, double y) {
+        int cx = col(x);
+        int cy = row(y);
+        int best = -1;
+        double bestDis = Double.MAX_VALUE;
+        int maxRing = Math.max(cols, rows);
+
+        for (int k = 0; k <= maxRing; k++) {
+            // Everything outside of ring k - 1 is at least (k - 1) cells away, so stop once nothing there can tie
+            if (best != -1 && bestDis < (k - 1) * cellSize) {
+                break;
+            }
+
+            for (int r = cy - k; r <= cy + k; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+
+                // Only walk the edges of the ring (every cell of the top and bottom rows, the ends of the others)
+                int step = (r == cy - k || r == cy + k) ? 1 : Math.max(1, 2 * k);
+
+                for (int c = cx - k; c <= cx + k; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    int cell = cellIndex(c, r);
+                    int[] bucket = buckets[cell];
+
+                    for (int i = 0; i < bucketSizes[cell]; i++) {
+                        int id = bucket[i];
+                        double dis = distance(x, y, xs[id], ys[id]);
+
+                        if (dis < bestDis || (dis == bestDis && before(id, best))) {
+                            bestDis = dis;
+                            best = id;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return one of the ids found by the last query.
+     * @param i The index of the result
+     * @return The id
+     */
+    public int getHit(int i) {
+        return hits[i];
+    }
+
+    /**
+     * Return the largest DIR radius any state in the grid has had.
+     * @return The radius bound
+     */
+    public double getMaxRadius() {
+        return maxRadius;
+    }
+
+    /**
+     * Sort the results of the last query by id, or by serial number if the ids have them.
+     */
+    private void sortHits() {
+        if (serials == null) {
+            Arrays.sort(hits, 0, hitCount);
+            return;
+        }
+        if (keys.length < hitCount) {
+            keys = new long[hits.length];
+        }
+        for (int i = 0; i < hitCount; i++) {
+            keys[i] = ((long) serials[hits[i]] << 32) | hits[i];
+        }
+        Arrays.sort(keys, 0, hitCount);
+
+        for (int i = 0; i < hitCount; i++) {
+            hits[i] = (int) keys[i];
+        }
+    }
+
+    /**
+     * Returns whether or not one id comes before another (by serial number if the ids have them).
+     */
+    private boolean before(int id, int other) {
+        return serials == null ? id < other : serials[id] < serials[other];
+    }
+
+    /**
+     * Return the radius level a DIR radius goes in: one with cells at least as wide as it (the lowest, unless it is a
+     * power of 2 times the cell size), or the top level if none of them are.
+     */
+    private int level(double radius) {
+        if (!(radius > cellSize)) {
+            return 0;
+        }
+        return Math.min(levelCounts.length - 1, Math.getExponent(radius / cellSize) + 1);
+    }
+
+    /**
+     * Put an id into the cell of the given radius level that its grid cell is in.
+     */
+    private void addToLevel(int id, int level) {
+        int col = (cellOf[id] % cols) >> level;
+        int row = (cellOf[id] / cols) >> level;
+        int cell = row * (((cols - 1) >> level) + 1) + col;
+        levelBuckets[level][cell] = add(levelBuckets[level][cell], levelSizes[level][cell]++, id);
+        levelCounts[level]++;
+        levelOf[id] = level;
+        levelCellOf[id] = cell;
+    }
+
+    private void removeFromLevel(int id) {
+        int level = levelOf[id];
+        int cell = levelCellOf[id];
+        removeFrom(levelBuckets[level][cell], levelSizes[level][cell]--, id);
+        levelCounts[level]--;
+    }
+
+    /**
+     * Add an id to the end of a bucket, making the bucket bigger if it is full.
+     * @param bucket The bucket (null if it hasn't been made yet)
+     * @param size The number of ids in it
+     * @param id The id
+     * @return The bucket, which is a new array if it had to grow
+     */
+    private static int[] add(int[] bucket, int size, int id) {
+        if (bucket == null) {
+            bucket = new int[4];
+        } else if (size == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+        }
+        bucket[size] = id;
+        return bucket;
+    }
+
+    /**
+     * Remove an id from a bucket by swapping the last id in the bucket into its slot.
+     * @param bucket The bucket
+     * @param size The number of ids in it (before removing)
+     * @param id The id
+     */
+    private static void removeFrom(int[] bucket, int size, int id) {
+        int last = size - 1;
+
+        for (int i = 0; i <= last; i++) {
+            if (bucket[i] == id) {
+                bucket[i] = bucket[last];
+                break;
+            }
+        }
+    }
+
+    private void addHit(int id) {
+        if (hitCount == hits.length) {
+            hits = Arrays.copyOf(hits, hits.length * 2);
+        }
+        hits[hitCount++] = id;
+    }
+
+    private int col(double x) {
+        return Math.min(cols - 1, Math.max(0, (int) Math.floor(x / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) Math.floor(y / cellSize)));
+    }
+
+    private int cellIndex(int col, int row) {
+        return row * cols + col;
+    }
+
+    private static double distance(double x1, double y1, double x2, double y2) {
+        return Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2));
+    }
+}
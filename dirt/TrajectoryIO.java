@@ -0,0 +1,399 @@
+package dirt;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.zip.GZIPOutputStream;
+
+import dirt.DIRT.State;
+
+/**
+ * Writes trajectories and trees to files, either as the text that the animator and visualizer read, as gzipped text,
+ * or in a compact binary format, and reads the binary format back in. Everything is written through a buffer, so
+ * writing a tree with millions of states doesn't take a system call per line.
+ *
+ * The binary format is little-endian. It starts with the magic number (the bytes "DIRT"), the version and the number of
+ * sections. Each section starts with its tag, the number of records in it and the number of values in each record,
+ * followed by the values themselves as doubles.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class TrajectoryIO {
+    // Global constants
+    final static int MAGIC = 0x54524944; // "DIRT" in little-endian
+    final static int VERSION = 1;
+    final static int BUFFER_SIZE = 1 << 16;
+
+    // Section tags
+    public final static int CONTROLS = 1; // Turn, acceleration, time and waypoint hit of each state after the root
+    public final static int STATES = 2; // X, y and angle of each state
+    public final static int TREE_NODES = 3; // X, y and DIR radius of each state in the tree
+    public final static int TRAJECTORY = 4; // X, y and DIR radius of each state in the trajectory
+
+    /**
+     * The file formats.
+     */
+    public enum Format {
+        TEXT, GZIP_TEXT, BINARY
+    }
+
+    /**
+     * A section of a binary file.
+     */
+    public static class Section {
+        public final int tag;
+        public final int width; // Number of values in each record
+        public final double[] values; // The records one after another
+
+        Section(int tag, int width, double[] values) {
+            this.tag = tag;
+            this.width = width;
+            this.values = values;
+        }
+
+        /**
+         * Return the number of records in the section.
+         * @return The number of records
+         */
+        public int size() {
+            return values.length / width;
+        }
+
+        /**
+         * Return a value of a record.
+         * @param record The index of the record
+         * @param field The index of the value in the record
+         * @return The value
+         */
+        public double get(int record, int field) {
+            return values[record * width + field];
+        }
+    }
+
+    /**
+     * Write the controls of a trajectory (and which states hit a waypoint).
+     * @param traj The trajectory, starting from the root
+     * @param fileName The name of the file to write
+     * @param format The format to write it in
+     */
+    public static void writeControls(LinkedList<State> traj, String fileName, Format format) throws IOException {
+        try (Output out = open(fileName, format, 1)) {
+            Iterator<State> it = traj.iterator();
+            it.next(); // Skip the root
+
+            out.section(CONTROLS, String.valueOf(traj.size() - 1), traj.size() - 1, 4);
+
+            while (it.hasNext()) {
+                State x = it.next();
+                out.value(x.controls[0]);
+                out.value(x.controls[1]);
+                out.value(x.controls[2]);
+                out.value(x.waypointHit);
+                out.endRecord();
+            }
+        }
+    }
+
+    /**
+     * Write the x, y and angle of each state of a trajectory.
+     * @param traj The trajectory, starting from the root
+     * @param fileName The name of the file to write
+     * @param format The format to write it in
+     */
+    public static void writeStates(LinkedList<State> traj, String fileName, Format format) throws IOException {
+        try (Output out = open(fileName, format, 1)) {
+            out.section(STATES, String.valueOf(traj.size()), traj.size(), 3);
+
+            for (State x : traj) {
+                out.value(x.position.x);
+                out.value(x.position.y);
+                out.value(Math.atan2(x.direction.y, x.direction.x));
+                out.endRecord();
+            }
+        }
+    }
+
+    /**
+     * Write the position and DIR radius of each state in a tree and then each state in a trajectory.
+     * @param tree The states in the tree
+     * @param traj The trajectory
+     * @param fileName The name of the file to write
+     * @param format The format to write it in
+     */
+    public static void writeTree(LinkedList<State> tree, LinkedList<State> traj, String fileName, Format format)
+            throws IOException {
+        try (Output out = open(fileName, format, 2)) {
+            out.section(TREE_NODES, "TREE_NODES", tree.size(), 3);
+            writePoints(out, tree);
+            out.section(TRAJECTORY, "TRAJECTORY", traj.size(), 3);
+            writePoints(out, traj);
+        }
+    }
+
+    /**
+     * Like writeTree(), but the tree is read straight out of the tree store instead of being made into States first.
+     * @param tree The tree store (pruned states are left out)
+     * @param traj The trajectory
+     * @param fileName The name of the file to write
+     * @param format The format to write it in
+     */
+    static void writeTree(TreeStore tree, LinkedList<State> traj, String fileName, Format format) throws IOException {
+        int count = 0;
+
+        for (int i = 0; i < tree.size(); i++) {
+            if (!tree.isPruned(i)) {
+                count++;
+            }
+        }
+        try (Output out = open(fileName, format, 2)) {
+            out.section(TREE_NODES, "TREE_NODES", count, 3);
+
+            for (int i : tree.order()) {
+                if (!tree.isPruned(i)) {
+                    out.value(tree.posX(i));
+                    out.value(tree.posY(i));
+                    out.value(tree.radius(i));
+                    out.endRecord();
+                }
+            }
+            out.section(TRAJECTORY, "TRAJECTORY", traj.size(), 3);
+            writePoints(out, traj);
+        }
+    }
+
+    /**
+     * Write the x, y and DIR radius of each state.
+     */
+    private static void writePoints(Output out, LinkedList<State> states) throws IOException {
+        for (State x : states) {
+            out.value(x.position.x);
+            out.value(x.position.y);
+            out.value(x.radius);
+            out.endRecord();
+        }
+    }
+
+    /**
+     * Read in a file written in the binary format.
+     * @param fileName The name of the file
+     * @return The sections of the file, in order
+     */
+    public static Section[] read(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+
+            // Check the header
+            if (readInt(channel, buffer) != MAGIC) {
+                throw new IOException(fileName + " is not a DIRT binary file");
+            }
+            int version = readInt(channel, buffer);
+
+            if (version != VERSION) {
+                throw new IOException(fileName + " has unsupported version " + version);
+            }
+            Section[] sections = new Section[readInt(channel, buffer)];
+
+            // Read each section
+            for (int s = 0; s < sections.length; s++) {
+                int tag = readInt(channel, buffer);
+                int records = readInt(channel, buffer);
+                int width = readInt(channel, buffer);
+                double[] values = new double[records * width];
+
+                for (int v = 0; v < values.length; v++) {
+                    fill(channel, buffer, Double.BYTES);
+                    values[v] = buffer.getDouble();
+                }
+                sections[s] = new Section(tag, width, values);
+            }
+            return sections;
+        }
+    }
+
+    /**
+     * Read an int from the channel.
+     */
+    private static int readInt(FileChannel channel, ByteBuffer buffer) throws IOException {
+        fill(channel, buffer, Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    /**
+     * Make sure there are at least the given number of bytes left in the buffer, reading more in from the channel if
+     * there aren't.
+     */
+    private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Open a file to write in the given format.
+     * @param fileName The name of the file
+     * @param format The format
+     * @param sections The number of sections that will be written
+     * @return The output
+     */
+    private static Output open(String fileName, Format format, int sections) throws IOException {
+        if (format == Format.BINARY) {
+            return new BinaryOutput(fileName, sections);
+        }
+        FileOutputStream file = new FileOutputStream(fileName, false);
+
+        if (format == Format.GZIP_TEXT) {
+            return new TextOutput(new OutputStreamWriter(new GZIPOutputStream(file, BUFFER_SIZE),
+                StandardCharsets.UTF_8));
+        }
+        return new TextOutput(new OutputStreamWriter(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A file being written, made of sections of records.
+     */
+    private interface Output extends AutoCloseable {
+        /**
+         * Start a section.
+         * @param tag The tag of the section (binary only)
+         * @param header The line that starts the section (text only)
+         * @param records The number of records that will be written to the section
+         * @param width The number of values in each record
+         */
+        void section(int tag, String header, int records, int width) throws IOException;
+
+        void value(double v) throws IOException;
+
+        void value(int v) throws IOException;
+
+        void endRecord() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Writes records as lines of values separated by spaces.
+     */
+    private static class TextOutput implements Output {
+        private final Writer writer;
+        private boolean first = true; // Whether or not the next value is the first of its record
+
+        TextOutput(Writer writer) {
+            this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+        }
+
+        public void section(int tag, String header, int records, int width) throws IOException {
+            writer.write(header);
+            writer.write('\n');
+        }
+
+        public void value(double v) throws IOException {
+            separate();
+            writer.write(Double.toString(v));
+        }
+
+        public void value(int v) throws IOException {
+            separate();
+            writer.write(Integer.toString(v));
+        }
+
+        private void separate() throws IOException {
+            if (!first) {
+                writer.write(' ');
+            }
+            first = false;
+        }
+
+        public void endRecord() throws IOException {
+            writer.write('\n');
+            first = true;
+        }
+
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes records as little-endian doubles through a buffered file channel.
+     */
+    private static class BinaryOutput implements Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        BinaryOutput(String fileName, int sections) throws IOException {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            putInt(MAGIC);
+            putInt(VERSION);
+            putInt(sections);
+        }
+
+        public void section(int tag, String header, int records, int width) throws IOException {
+            putInt(tag);
+            putInt(records);
+            putInt(width);
+        }
+
+        public void value(double v) throws IOException {
+            if (buffer.remaining() < Double.BYTES) {
+                flush();
+            }
+            buffer.putDouble(v);
+        }
+
+        public void value(int v) throws IOException {
+            value((double) v);
+        }
+
+        public void endRecord() {
+        }
+
+        private void putInt(int v) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(v);
+        }
+
+        /**
+         * Write out everything in the buffer.
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
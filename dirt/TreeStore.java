@@ -0,0 +1,717 @@
+package dirt;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import dirt.DIRT.State;
+
+/**
+ * Storage for the states of a DIRT tree. Instead of one State object (plus its Vectors and lists) per node, every
+ * field is kept in a parallel primitive array and nodes are referred to by their index, which is also the order they
+ * were added to the tree. State objects are only made when the caller asks for them (see materialize()). The edge
+ * candidates of every node are kept in one shared pool of doubles too, with each node owning a slice of it.
+ *
+ * The space of a pruned node can be reclaimed once no node below it is left (see reclaim()), and the next node added
+ * to the tree reuses it. Each node also gets a serial number counting up in the order nodes are added, so that the
+ * order nodes were added in is still known once indices are being reused.
+ *
+ * In compact mode (see setCompact()), the direction, velocity, position, cost, heuristic value, DIR radius and
+ * controls of each node are rounded to floats and kept together in one array, which takes half the memory, and so
+ * are the edge candidates. They are read back as doubles, so DIRT still does all of its math in double precision.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class TreeStore {
+    // Node flags
+    final static byte EXPANDED = 1;
+    final static byte PRUNED = 2;
+    final static byte FREE = 4; // The node's space has been reclaimed (it is also pruned)
+    final static byte PINNED = 8; // The node is never reclaimed (Ex. it is a solution)
+
+    // Where each field is in a node's record of the compact array
+    final static int DIR_X = 0;
+    final static int DIR_Y = 1;
+    final static int VEL_X = 2;
+    final static int VEL_Y = 3;
+    final static int POS_X = 4;
+    final static int POS_Y = 5;
+    final static int COST = 6;
+    final static int HEURISTIC = 7;
+    final static int RADIUS = 8;
+    final static int CONTROLS = 9; // Turn, then acceleration and time
+    final static int COMPACT_WIDTH = 12;
+
+    // Field variables
+    private double[] dirX; // The double fields are null in compact mode
+    private double[] dirY;
+    private double[] velX;
+    private double[] velY;
+    private double[] posX;
+    private double[] posY;
+    private double[] cost; // g
+    private double[] heuristic; // h
+    private double[] radius;
+    private double[] controls; // The turn, acceleration and time that led to each node, three per node
+    private float[] compact; // Every double field rounded to a float, COMPACT_WIDTH per node (null if not compact)
+    int[] parent; // Index of each node's parent (-1 for the root)
+    byte[] flags;
+    int[] serial; // The order each node was added in
+    int[] childCount; // Number of nodes whose parent is each node (not counting reclaimed ones)
+    private double[] ecandPool; // Turn, acceleration and time of every edge candidate, three per candidate
+    private float[] compactEcandPool; // The same, rounded to floats, in compact mode (instead of ecandPool)
+    private int[] ecandStart; // Where each node's slice of the pool starts (in candidates)
+    private int[] ecandCap; // Number of candidates each node's slice has room for
+    private int[] ecandUsed; // Number of candidates written to each node's slice (including removed ones)
+    private int[] ecandLive; // Number of those that haven't been removed
+    private int ecandTop; // Number of candidates' worth of the pool handed out to slices
+    private int[] free; // Indices of reclaimed nodes, to be reused
+    private int freeCount;
+    private int size;
+    private int added; // Number of nodes ever added
+    private int capacityLimit = Integer.MAX_VALUE; // Most nodes grow() makes room for, if it can
+
+    /**
+     * Constructor.
+     * @param capacity The number of nodes to make room for up front
+     */
+    public TreeStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        dirX = new double[capacity];
+        dirY = new double[capacity];
+        velX = new double[capacity];
+        velY = new double[capacity];
+        posX = new double[capacity];
+        posY = new double[capacity];
+        cost = new double[capacity];
+        heuristic = new double[capacity];
+        radius = new double[capacity];
+        parent = new int[capacity];
+        controls = new double[capacity * 3];
+        flags = new byte[capacity];
+        serial = new int[capacity];
+        childCount = new int[capacity];
+        ecandPool = new double[capacity * 3 * 4];
+        ecandStart = new int[capacity];
+        ecandCap = new int[capacity];
+        ecandUsed = new int[capacity];
+        ecandLive = new int[capacity];
+        ecandTop = 0;
+        free = new int[16];
+        freeCount = 0;
+        size = 0;
+        added = 0;
+    }
+
+    /**
+     * Add a node to the tree, reusing the space of a reclaimed node if there is one.
+     * @param p The index of the node's parent (-1 for the root)
+     * @param dx The x value of the direction vector
+     * @param dy The y value of the direction vector
+     * @param vx The x value of the velocity vector
+     * @param vy The y value of the velocity vector
+     * @param px The x value of the position vector
+     * @param py The y value of the position vector
+     * @param g The cost of the trajectory ending in this node
+     * @param h The heuristic value of this node
+     * @param u The controls that led to this node (null for the root)
+     * @return The index of the new node
+     */
+    public int add(int p, double dx, double dy, double vx, double vy, double px, double py, double g, double h,
+            double[] u) {
+        int i;
+
+        if (freeCount > 0) {
+            i = free[--freeCount];
+        } else {
+            if (size == parent.length) {
+                grow();
+            }
+            i = size++;
+        }
+        parent[i] = p;
+        set(dirX, i, DIR_X, dx);
+        set(dirY, i, DIR_Y, dy);
+        set(velX, i, VEL_X, vx);
+        set(velY, i, VEL_Y, vy);
+        set(posX, i, POS_X, px);
+        set(posY, i, POS_Y, py);
+        set(cost, i, COST, g);
+        set(heuristic, i, HEURISTIC, h);
+        set(radius, i, RADIUS, 0);
+        flags[i] = 0;
+        ecandUsed[i] = 0;
+        ecandLive[i] = 0;
+        serial[i] = added++;
+        childCount[i] = 0;
+
+        if (p != -1) {
+            childCount[p]++;
+        }
+
+        if (u != null) {
+            for (int k = 0; k < 3; k++) {
+                if (compact == null) {
+                    controls[i * 3 + k] = u[k];
+                } else {
+                    compact[i * COMPACT_WIDTH + CONTROLS + k] = (float) u[k];
+                }
+            }
+        }
+        return i;
+    }
+
+    public double dirX(int i) {
+        return get(dirX, i, DIR_X);
+    }
+
+    public double dirY(int i) {
+        return get(dirY, i, DIR_Y);
+    }
+
+    public double velX(int i) {
+        return get(velX, i, VEL_X);
+    }
+
+    public double velY(int i) {
+        return get(velY, i, VEL_Y);
+    }
+
+    public double posX(int i) {
+        return get(posX, i, POS_X);
+    }
+
+    public double posY(int i) {
+        return get(posY, i, POS_Y);
+    }
+
+    public double cost(int i) {
+        return get(cost, i, COST);
+    }
+
+    public double heuristic(int i) {
+        return get(heuristic, i, HEURISTIC);
+    }
+
+    public void setHeuristic(int i, double h) {
+        set(heuristic, i, HEURISTIC, h);
+    }
+
+    public double radius(int i) {
+        return get(radius, i, RADIUS);
+    }
+
+    public void setRadius(int i, double r) {
+        set(radius, i, RADIUS, r);
+    }
+
+    /**
+     * Return one of the controls that led to a node.
+     * @param i The index of the node
+     * @param k 0 for the turn, 1 for the acceleration or 2 for the time
+     * @return The control
+     */
+    public double control(int i, int k) {
+        return compact == null ? controls[i * 3 + k] : compact[i * COMPACT_WIDTH + CONTROLS + k];
+    }
+
+    /**
+     * Read a field of a node from its double array, or from the compact array in compact mode.
+     */
+    private double get(double[] full, int i, int field) {
+        return compact == null ? full[i] : compact[i * COMPACT_WIDTH + field];
+    }
+
+    /**
+     * Write a field of a node to its double array, or round it into the compact array in compact mode.
+     */
+    private void set(double[] full, int i, int field, double v) {
+        if (compact == null) {
+            full[i] = v;
+        } else {
+            compact[i * COMPACT_WIDTH + field] = (float) v;
+        }
+    }
+
+    /**
+     * Switch between storing nodes in double precision and compact mode, converting the nodes already stored. Going
+     * into compact mode rounds them to floats, and going back doesn't bring the lost precision back.
+     * @param on Whether or not to use compact mode
+     */
+    public void setCompact(boolean on) {
+        if (on == isCompact()) {
+            return;
+        }
+        int capacity = parent.length;
+
+        if (on) {
+            compact = new float[capacity * COMPACT_WIDTH];
+
+            for (int i = 0; i < size; i++) {
+                int at = i * COMPACT_WIDTH;
+                compact[at + DIR_X] = (float) dirX[i];
+                compact[at + DIR_Y] = (float) dirY[i];
+                compact[at + VEL_X] = (float) velX[i];
+                compact[at + VEL_Y] = (float) velY[i];
+                compact[at + POS_X] = (float) posX[i];
+                compact[at + POS_Y] = (float) posY[i];
+                compact[at + COST] = (float) cost[i];
+                compact[at + HEURISTIC] = (float) heuristic[i];
+                compact[at + RADIUS] = (float) radius[i];
+
+                for (int k = 0; k < 3; k++) {
+                    compact[at + CONTROLS + k] = (float) controls[i * 3 + k];
+                }
+            }
+            compactEcandPool = new float[ecandPool.length];
+
+            for (int c = 0; c < ecandTop * 3; c++) {
+                compactEcandPool[c] = (float) ecandPool[c];
+            }
+            dirX = dirY = velX = velY = posX = posY = cost = heuristic = radius = controls = ecandPool = null;
+        } else {
+            float[] packed = compact;
+            dirX = unpack(packed, DIR_X, capacity);
+            dirY = unpack(packed, DIR_Y, capacity);
+            velX = unpack(packed, VEL_X, capacity);
+            velY = unpack(packed, VEL_Y, capacity);
+            posX = unpack(packed, POS_X, capacity);
+            posY = unpack(packed, POS_Y, capacity);
+            cost = unpack(packed, COST, capacity);
+            heuristic = unpack(packed, HEURISTIC, capacity);
+            radius = unpack(packed, RADIUS, capacity);
+            controls = new double[capacity * 3];
+
+            for (int i = 0; i < size; i++) {
+                for (int k = 0; k < 3; k++) {
+                    controls[i * 3 + k] = packed[i * COMPACT_WIDTH + CONTROLS + k];
+                }
+            }
+            ecandPool = new double[compactEcandPool.length];
+
+            for (int c = 0; c < ecandTop * 3; c++) {
+                ecandPool[c] = compactEcandPool[c];
+            }
+            compact = null;
+            compactEcandPool = null;
+        }
+    }
+
+    /**
+     * Copy one field of every node out of a compact array.
+     */
+    private double[] unpack(float[] packed, int field, int capacity) {
+        double[] full = new double[capacity];
+
+        for (int i = 0; i < size; i++) {
+            full[i] = packed[i * COMPACT_WIDTH + field];
+        }
+        return full;
+    }
+
+    public boolean isCompact() {
+        return compact != null;
+    }
+
+    /**
+     * Return the path quality (f = g + h) of a node.
+     * @param i The index of the node
+     * @return The path quality
+     */
+    public double pathQuality(int i) {
+        return cost(i) + heuristic(i);
+    }
+
+    /**
+     * Calculates the task space distance between two nodes.
+     * @param i The index of the first node
+     * @param j The index of the second node
+     * @return The distance
+     */
+    public double distance(int i, int j) {
+        return Math.sqrt(Math.pow(posX(i) - posX(j), 2) + Math.pow(posY(i) - posY(j), 2));
+    }
+
+    public boolean isExpanded(int i) {
+        return (flags[i] & EXPANDED) != 0;
+    }
+
+    public boolean isPruned(int i) {
+        return (flags[i] & PRUNED) != 0;
+    }
+
+    public boolean isFree(int i) {
+        return (flags[i] & FREE) != 0;
+    }
+
+    public boolean isPinned(int i) {
+        return (flags[i] & PINNED) != 0;
+    }
+
+    /**
+     * Returns whether or not no node has a node as its parent.
+     * @param i The index of the node
+     * @return Boolean
+     */
+    public boolean isLeaf(int i) {
+        return childCount[i] == 0;
+    }
+
+    public void setFlag(int i, byte flag) {
+        flags[i] |= flag;
+    }
+
+    public void clearFlag(int i, byte flag) {
+        flags[i] &= ~flag;
+    }
+
+    /**
+     * Start a new set of edge candidates for a node, replacing any it has left. The node's slice of the pool is reused
+     * if it has room, so a node only takes up more of the pool when it needs more candidates at once than ever before.
+     * @param i The index of the node
+     * @param n The number of candidates that will be added
+     */
+    public void setEcand(int i, int n) {
+        if (ecandCap[i] < n) {
+            int length = compact == null ? ecandPool.length : compactEcandPool.length;
+
+            if ((ecandTop + n) * 3 > length) {
+                length = Math.max((ecandTop + n) * 3, length * 2);
+
+                if (compact == null) {
+                    ecandPool = Arrays.copyOf(ecandPool, length);
+                } else {
+                    compactEcandPool = Arrays.copyOf(compactEcandPool, length);
+                }
+            }
+            ecandStart[i] = ecandTop;
+            ecandCap[i] = n;
+            ecandTop += n;
+        }
+        ecandUsed[i] = 0;
+        ecandLive[i] = 0;
+    }
+
+    /**
+     * Add an edge candidate to a node (after setEcand()).
+     * @param i The index of the node
+     * @param turn The turn of the control
+     * @param acc The acceleration of the control
+     * @param time The time of the control
+     */
+    public void addEcand(int i, double turn, double acc, double time) {
+        int at = (ecandStart[i] + ecandUsed[i]++) * 3;
+
+        // In compact mode, the control is rounded here, so the search uses the same control that the node it makes
+        // will store
+        if (compact == null) {
+            ecandPool[at] = turn;
+            ecandPool[at + 1] = acc;
+            ecandPool[at + 2] = time;
+        } else {
+            compactEcandPool[at] = (float) turn;
+            compactEcandPool[at + 1] = (float) acc;
+            compactEcandPool[at + 2] = (float) time;
+        }
+        ecandLive[i]++;
+    }
+
+    /**
+     * Return the number of edge candidates that have been added to a node since setEcand(), including removed ones.
+     * Candidates are numbered from 0 up to this, in the order they were added.
+     * @param i The index of the node
+     * @return The number of candidates
+     */
+    public int ecandSlots(int i) {
+        return ecandUsed[i];
+    }
+
+    /**
+     * Returns whether or not an edge candidate of a node is still there (hasn't been removed).
+     * @param i The index of the node
+     * @param k The number of the candidate
+     * @return Boolean
+     */
+    public boolean hasEcand(int i, int k) {
+        int at = (ecandStart[i] + k) * 3 + 2;
+        return compact == null ? !Double.isNaN(ecandPool[at]) : !Float.isNaN(compactEcandPool[at]);
+    }
+
+    /**
+     * Copy an edge candidate of a node into the given control.
+     * @param i The index of the node
+     * @param k The number of the candidate
+     * @param u The control to write the turn, acceleration and time into
+     */
+    public void getEcand(int i, int k, double[] u) {
+        int at = (ecandStart[i] + k) * 3;
+
+        if (compact == null) {
+            u[0] = ecandPool[at];
+            u[1] = ecandPool[at + 1];
+            u[2] = ecandPool[at + 2];
+        } else {
+            u[0] = compactEcandPool[at];
+            u[1] = compactEcandPool[at + 1];
+            u[2] = compactEcandPool[at + 2];
+        }
+    }
+
+    /**
+     * Remove an edge candidate from a node. The candidate's time is set to NaN to mark it as removed, so the other
+     * candidates keep their numbers and their order.
+     * @param i The index of the node
+     * @param k The number of the candidate
+     */
+    public void removeEcand(int i, int k) {
+        int at = (ecandStart[i] + k) * 3 + 2;
+
+        if (compact == null) {
+            ecandPool[at] = Double.NaN;
+        } else {
+            compactEcandPool[at] = Float.NaN;
+        }
+        ecandLive[i]--;
+    }
+
+    /**
+     * Remove every edge candidate from a node.
+     * @param i The index of the node
+     */
+    public void clearEcand(int i) {
+        ecandUsed[i] = 0;
+        ecandLive[i] = 0;
+    }
+
+    /**
+     * Return the number of edge candidates a node has left.
+     * @param i The index of the node
+     * @return The number of edge candidates
+     */
+    public int ecandCount(int i) {
+        return ecandLive[i];
+    }
+
+    /**
+     * Return the number of node indices in use (including pruned and reclaimed nodes).
+     * @return The number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the number of nodes that haven't been reclaimed (including pruned ones).
+     * @return The number of nodes
+     */
+    public int count() {
+        return size - freeCount;
+    }
+
+    /**
+     * Stop the arrays from growing past room for the given number of nodes, as long as the tree keeps to that many
+     * nodes. If it doesn't, they go on doubling.
+     * @param limit The number of nodes
+     */
+    public void setCapacityLimit(int limit) {
+        capacityLimit = limit;
+    }
+
+    /**
+     * Reclaim the space of a pruned node that has no nodes below it, so the next node added can reuse it, and then do
+     * the same for its ancestors that this leaves without any nodes below them. Nodes that aren't pruned, are pinned,
+     * still have nodes below them or are the root are left alone.
+     * @param i The index of the node
+     * @return The number of nodes reclaimed
+     */
+    public int reclaim(int i) {
+        int count = 0;
+
+        while (i > 0 && (flags[i] & (PRUNED | FREE | PINNED)) == PRUNED && childCount[i] == 0) {
+            flags[i] |= FREE;
+            clearEcand(i);
+
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = i;
+            count++;
+            i = parent[i];
+            childCount[i]--;
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether or not the indices of the nodes are still in the order the nodes were added (no index has been
+     * reused).
+     * @return Boolean
+     */
+    public boolean isInOrder() {
+        return added == size;
+    }
+
+    /**
+     * Return the indices of every node that hasn't been reclaimed, in the order the nodes were added.
+     * @return The indices
+     */
+    public int[] order() {
+        int[] order = new int[size - freeCount];
+        int n = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (!isFree(i)) {
+                order[n++] = i;
+            }
+        }
+
+        // Indices only stop being in the order the nodes were added once they get reused
+        if (!isInOrder()) {
+            long[] keys = new long[n];
+
+            for (int k = 0; k < n; k++) {
+                keys[k] = ((long) serial[order[k]] << 32) | order[k];
+            }
+            Arrays.sort(keys);
+
+            for (int k = 0; k < n; k++) {
+                order[k] = (int) keys[k];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Make a State for the given node, and for all of its ancestors up to the root.
+     * @param i The index of the node
+     * @param rootState The State to use for the root of the tree
+     * @return The State for node i
+     */
+    public State materialize(int i, State rootState) {
+        State end = makeState(i, rootState);
+        State child = end;
+
+        // Walk up the parent chain, so that only the States on the trajectory are made
+        for (int n = parent[i]; n != -1; n = parent[n]) {
+            State x = makeState(n, rootState);
+            child.parent = x;
+            child = x;
+        }
+        return end;
+    }
+
+    /**
+     * Make States for every node that hasn't been pruned, in the order they were added to the tree. Ancestors that were
+     * pruned are still made so that every State's parent pointers lead back to the root.
+     * @param rootState The State to use for the root of the tree
+     * @return The States
+     */
+    public LinkedList<State> materializeAll(State rootState) {
+        LinkedList<State> states = new LinkedList<State>();
+        State[] made = new State[size];
+
+        for (int i : order()) {
+            if (!isPruned(i)) {
+                states.add(materialize(i, rootState, made));
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Make a State for the given node, reusing any States already made for its ancestors.
+     * @param i The index of the node
+     * @param rootState The State to use for the root of the tree
+     * @param made States that have already been made, by index
+     * @return The State for node i
+     */
+    private State materialize(int i, State rootState, State[] made) {
+        if (made[i] != null) {
+            return made[i];
+        }
+
+        // Walk up to the first ancestor that has already been made
+        int top = i;
+        int length = 0;
+
+        while (top != -1 && made[top] == null) {
+            top = parent[top];
+            length++;
+        }
+
+        // Then make the States on the way back down
+        int[] path = new int[length];
+        int j = i;
+
+        for (int k = length - 1; k >= 0; k--) {
+            path[k] = j;
+            j = parent[j];
+        }
+        for (int k = 0; k < length; k++) {
+            int n = path[k];
+            State x = makeState(n, rootState);
+
+            if (parent[n] != -1) {
+                x.parent = made[parent[n]];
+            }
+            made[n] = x;
+        }
+        return made[i];
+    }
+
+    /**
+     * Make a State for the given node, without its parent.
+     * @param n The index of the node
+     * @param rootState The State to use for the root of the tree
+     * @return The State for node n
+     */
+    private State makeState(int n, State rootState) {
+        State x;
+
+        if (parent[n] == -1) {
+            x = rootState;
+        } else {
+            x = new State(new Vector(dirX(n), dirY(n)), new Vector(velX(n), velY(n)), new Vector(posX(n), posY(n)));
+            x.controls = new double[] {control(n, 0), control(n, 1), control(n, 2)};
+            x.cost = cost(n);
+            x.heuristicVal = heuristic(n);
+            x.pathQuality = pathQuality(n);
+        }
+        x.radius = radius(n);
+        x.expanded = isExpanded(n);
+        return x;
+    }
+
+    /**
+     * Double the capacity of every array.
+     */
+    private void grow() {
+        int capacity = parent.length * 2;
+
+        if (capacity > capacityLimit && parent.length < capacityLimit) {
+            capacity = capacityLimit;
+        }
+
+        if (compact == null) {
+            dirX = Arrays.copyOf(dirX, capacity);
+            dirY = Arrays.copyOf(dirY, capacity);
+            velX = Arrays.copyOf(velX, capacity);
+            velY = Arrays.copyOf(velY, capacity);
+            posX = Arrays.copyOf(posX, capacity);
+            posY = Arrays.copyOf(posY, capacity);
+            cost = Arrays.copyOf(cost, capacity);
+            heuristic = Arrays.copyOf(heuristic, capacity);
+            radius = Arrays.copyOf(radius, capacity);
+            controls = Arrays.copyOf(controls, capacity * 3);
+        } else {
+            compact = Arrays.copyOf(compact, capacity * COMPACT_WIDTH);
+        }
+        parent = Arrays.copyOf(parent, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        serial = Arrays.copyOf(serial, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        ecandStart = Arrays.copyOf(ecandStart, capacity);
+        ecandCap = Arrays.copyOf(ecandCap, capacity);
+        ecandUsed = Arrays.copyOf(ecandUsed, capacity);
+        ecandLive = Arrays.copyOf(ecandLive, capacity);
+    }
+}
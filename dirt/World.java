@@ -0,0 +1,747 @@
+package dirt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * A compiled version of the world map. The map string is read in once and turned into a packed bitset with one bit
+ * per map cell, so checking whether a point is inside an obstacle is a constant-time lookup instead of a scan over
+ * every blocked space. It can also work out a distance field (how far each free cell is from the nearest blocked
+ * cell), so that it can say how far a point is guaranteed to be from any obstacle; that is only done the first time it
+ * is needed, and the field is made coarser on big maps to keep its size down. A World never changes once it has been
+ * made, so one can be shared by any number of planners (and threads); World.compile() keeps the worlds it made most
+ * recently, so a map is usually only read in once per program.
+ * @author Bryan McKenney, Lucas Guerrette
+ * @version 1
+ */
+public class World {
+    // Global constants
+    final static double HALF_DIAGONAL = Math.sqrt(2) / 2; // Distance from the center of a field cell to its corners
+    final static double CLEARANCE_MARGIN = 1e-6; // Taken off every clearance to cover rounding error
+    final static int MAX_FIELD_SUBDIVISIONS = 4; // Most distance field cells across each map cell
+    final static int MAX_FIELD_CELLS = 1 << 20; // Most distance field cells, so big maps get coarser fields
+    final static int MAX_COMPILED = 8; // Most worlds that compile() keeps
+    final static int MAX_GOAL_STEPS = 8; // Most wavefronts that goalSteps() keeps for each world
+
+    // Worlds that have been compiled most recently, by map contents (least recently used first)
+    private static final LinkedHashMap<Key, World> compiled = new LinkedHashMap<Key, World>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, World> eldest) {
+            return size() > MAX_COMPILED;
+        }
+    };
+
+    // Field variables
+    private final int worldWidth;
+    private final int worldHeight;
+    private final int scaleFactor;
+    private final int cols; // Number of map cells across
+    private final int rows; // Number of map cells up and down
+    private final long[] blocked; // One bit per map cell, row by row starting from the bottom of the map
+    private final ArrayList<int[]> blockedSpaces;
+    private final int fieldSubdivisions; // Distance field cells across each map cell
+    private final int fieldCols; // Number of distance field cells across
+    private final int fieldRows; // Number of distance field cells up and down
+    private volatile float[] fieldDistance; // Distance from each field cell's center to the nearest blocked one's
+    private final LinkedHashMap<GoalKey, int[]> goalSteps; // Wavefronts used most recently, by goal (oldest first)
+
+    /**
+     * Constructor.
+     * @param worldWidth The width of the world
+     * @param worldHeight The height of the world
+     * @param map A string representation of the map (rows separated by newlines, top row first, '#' for obstacles)
+     */
+    public World(int worldWidth, int worldHeight, String map) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        blockedSpaces = new ArrayList<>();
+
+        // Find the blocked spaces the same way DIRT always has, keeping track of how wide the map gets
+        Scanner sc = new Scanner(map);
+        String line = sc.nextLine();
+        scaleFactor = worldWidth / line.length();
+        int height = worldHeight / scaleFactor;
+        int maxCols = 0;
+        rows = height;
+
+        while (height > 0) {
+            maxCols = Math.max(maxCols, line.length());
+
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '#') {
+                    blockedSpaces.add(new int[] {i, height - 1});
+                }
+            }
+            height--;
+            if (height > 0) {
+                line = sc.nextLine();
+            }
+        }
+        sc.close();
+
+        // Pack the blocked spaces into the bitset
+        cols = maxCols;
+        blocked = new long[(cols * rows + 63) / 64];
+
+        for (int[] space : blockedSpaces) {
+            int bit = space[1] * cols + space[0];
+            blocked[bit >>> 6] |= 1L << bit;
+        }
+        fieldSubdivisions = (int) Math.max(1, Math.min(MAX_FIELD_SUBDIVISIONS,
+            Math.sqrt((double) MAX_FIELD_CELLS / Math.max(1, cols * rows))));
+        fieldCols = cols * fieldSubdivisions;
+        fieldRows = rows * fieldSubdivisions;
+        goalSteps = new LinkedHashMap<GoalKey, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GoalKey, int[]> eldest) {
+                return size() > MAX_GOAL_STEPS;
+            }
+        };
+    }
+
+    /**
+     * Work out the distance field (the first time clearance() needs it) with the linear-time Euclidean distance
+     * transform of Felzenszwalb and Huttenlocher (a pass down every column, then a pass along every row). Each map cell
+     * is split into a few field cells so that the distances aren't too rough (fewer on big maps).
+     * @return The distance from the center of each field cell to the center of the nearest blocked one, in field cells
+     */
+    private float[] distanceField() {
+        double far = 1e20; // Squared distance for "no blocked cell"
+        int n = Math.max(fieldCols, fieldRows);
+        double[] squared = new double[fieldCols * fieldRows];
+        double[] f = new double[n];
+        double[] d = new double[n];
+        int[] v = new int[n];
+        double[] z = new double[n + 1];
+
+        for (int row = 0; row < fieldRows; row++) {
+            for (int col = 0; col < fieldCols; col++) {
+                boolean isWall = isBlocked(col / fieldSubdivisions, row / fieldSubdivisions);
+                squared[row * fieldCols + col] = isWall ? 0 : far;
+            }
+        }
+
+        // Columns
+        for (int col = 0; col < fieldCols; col++) {
+            for (int row = 0; row < fieldRows; row++) {
+                f[row] = squared[row * fieldCols + col];
+            }
+            transform(f, fieldRows, d, v, z);
+            for (int row = 0; row < fieldRows; row++) {
+                squared[row * fieldCols + col] = d[row];
+            }
+        }
+
+        // Rows (rounded down to stay a lower bound)
+        float[] field = new float[fieldCols * fieldRows];
+
+        for (int row = 0; row < fieldRows; row++) {
+            System.arraycopy(squared, row * fieldCols, f, 0, fieldCols);
+            transform(f, fieldCols, d, v, z);
+            for (int col = 0; col < fieldCols; col++) {
+                field[row * fieldCols + col] = Math.nextDown((float) Math.sqrt(d[col]));
+            }
+        }
+        return field;
+    }
+
+    /**
+     * One-dimensional squared distance transform (the lower envelope of the parabolas rooted at each cell).
+     * @param f The squared distances going in
+     * @param n How many of them there are
+     * @param d Where to write the squared distances coming out
+     * @param v Scratch space for the roots of the parabolas in the envelope
+     * @param z Scratch space for the boundaries between them
+     */
+    private static void transform(double[] f, int n, double[] d, int[] v, double[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = Double.NEGATIVE_INFINITY;
+        z[1] = Double.POSITIVE_INFINITY;
+
+        for (int q = 1; q < n; q++) {
+            double s = ((f[q] + (double) q * q) - (f[v[k]] + (double) v[k] * v[k])) / (2.0 * q - 2.0 * v[k]);
+
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + (double) q * q) - (f[v[k]] + (double) v[k] * v[k])) / (2.0 * q - 2.0 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            d[q] = (double) (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+
+    /**
+     * Return the compiled world for the given map, reading the map in only if it hasn't been compiled before.
+     * @param worldWidth The width of the world
+     * @param worldHeight The height of the world
+     * @param map A string representation of the map (rows separated by newlines, top row first, '#' for obstacles)
+     * @return The world
+     */
+    public static World compile(int worldWidth, int worldHeight, String map) {
+        Key key = new Key(worldWidth, worldHeight, map);
+
+        synchronized (compiled) {
+            World world = compiled.get(key);
+
+            if (world != null) {
+                return world;
+            }
+        }
+
+        // Read the map in outside of the lock, so that other maps can be looked up in the meantime
+        World world = new World(worldWidth, worldHeight, map);
+
+        synchronized (compiled) {
+            World other = compiled.putIfAbsent(key, world);
+            return other != null ? other : world;
+        }
+    }
+
+    /**
+     * Forget every world that compile() has kept.
+     */
+    public static void clearCompiled() {
+        synchronized (compiled) {
+            compiled.clear();
+        }
+    }
+
+    /**
+     * Returns whether or not the map cell at the given column and row is an obstacle. Cells off the map are free.
+     * @param col The column of the cell
+     * @param row The row of the cell (0 is the bottom row)
+     * @return true if the cell is blocked, false otherwise
+     */
+    public boolean isBlocked(int col, int row) {
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return false;
+        }
+        int bit = row * cols + col;
+        return (blocked[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Takes two doubles, representing the coordinates of a point, and tests to see if it is out of bounds or inside of
+     * an obstacle. Obstacles include their edges, so a point on the border between a free cell and a blocked cell is a
+     * collision, just like the point touching the edge of the world.
+     * @param x the x position being tested
+     * @param y the y position being tested
+     * @return true if there is a collision, false otherwise
+     */
+    public boolean posCollision(double x, double y) {
+        if (x <= 0 || x >= worldWidth || y <= 0 || y >= worldHeight) {
+            return true;
+        }
+        int col = cellOf(x);
+        int row = cellOf(y);
+
+        // A point sitting exactly on a cell edge also touches the cell below/to the left of it
+        boolean onColEdge = (double) col * scaleFactor == x;
+        boolean onRowEdge = (double) row * scaleFactor == y;
+
+        return isBlocked(col, row)
+            || (onColEdge && isBlocked(col - 1, row))
+            || (onRowEdge && isBlocked(col, row - 1))
+            || (onColEdge && onRowEdge && isBlocked(col - 1, row - 1));
+    }
+
+    /**
+     * Tests whether the straight line segment between two points hits an obstacle or leaves the world, by walking
+     * through every map cell the segment passes through (Amanatides-Woo grid traversal). Like posCollision(), touching
+     * the edge of an obstacle counts as a collision, so a segment that passes exactly through the corner of two cells
+     * checks both of the cells beside the corner, and one that runs along a cell edge checks the cells on both sides.
+     * @param x0 The x position of the start of the segment
+     * @param y0 The y position of the start of the segment
+     * @param x1 The x position of the end of the segment
+     * @param y1 The y position of the end of the segment
+     * @return true if there is a collision, false otherwise
+     */
+    public boolean segmentCollision(double x0, double y0, double x1, double y1) {
+        // The world is a rectangle, so the segment is inside it if both of its ends are
+        if (posCollision(x0, y0) || posCollision(x1, y1)) {
+            return true;
+        }
+        return walk(x0, y0, x1, y1, false);
+    }
+
+    /**
+     * Like segmentCollision(), but only the insides of obstacles count, the way RRT has always checked points: a
+     * segment can touch or run along the edges and corners of an obstacle without hitting it, and it only leaves the
+     * world if one of its ends is past the edge (being right on the edge is fine).
+     * @param x0 The x position of the start of the segment
+     * @param y0 The y position of the start of the segment
+     * @param x1 The x position of the end of the segment
+     * @param y1 The y position of the end of the segment
+     * @return true if there is a collision, false otherwise
+     */
+    public boolean segmentEntersObstacle(double x0, double y0, double x1, double y1) {
+        if (x0 < 0 || x0 > worldWidth || y0 < 0 || y0 > worldHeight
+                || x1 < 0 || x1 > worldWidth || y1 < 0 || y1 > worldHeight) {
+            return true;
+        }
+        return walk(x0, y0, x1, y1, true);
+    }
+
+    /**
+     * Tests whether anything within a given distance of the segment between two points could hit an obstacle or leave
+     * the world, for paths that are only known to stay that close to the segment. It checks every blocked cell that the
+     * segment passes within the distance of (measured along each axis, so a little more is checked around corners),
+     * so it can report collisions that the path would have missed but never misses one. Like posCollision(), touching
+     * the edge of an obstacle counts as a collision.
+     * @param x0 The x position of the start of the segment
+     * @param y0 The y position of the start of the segment
+     * @param x1 The x position of the end of the segment
+     * @param y1 The y position of the end of the segment
+     * @param margin How far from the segment to check
+     * @return true if there may be a collision, false otherwise
+     */
+    public boolean corridorCollision(double x0, double y0, double x1, double y1, double margin) {
+        double minX = Math.min(x0, x1) - margin;
+        double minY = Math.min(y0, y1) - margin;
+        double maxX = Math.max(x0, x1) + margin;
+        double maxY = Math.max(y0, y1) + margin;
+
+        if (minX <= 0 || maxX >= worldWidth || minY <= 0 || maxY >= worldHeight) {
+            return true;
+        }
+        return corridorHits(x0, y0, x1, y1, margin, false);
+    }
+
+    /**
+     * Like corridorCollision(), but only the insides of obstacles count (see segmentEntersObstacle()).
+     * @param x0 The x position of the start of the segment
+     * @param y0 The y position of the start of the segment
+     * @param x1 The x position of the end of the segment
+     * @param y1 The y position of the end of the segment
+     * @param margin How far from the segment to check
+     * @return true if there may be a collision, false otherwise
+     */
+    public boolean corridorEntersObstacle(double x0, double y0, double x1, double y1, double margin) {
+        double minX = Math.min(x0, x1) - margin;
+        double minY = Math.min(y0, y1) - margin;
+        double maxX = Math.max(x0, x1) + margin;
+        double maxY = Math.max(y0, y1) + margin;
+
+        if (minX < 0 || maxX > worldWidth || minY < 0 || maxY > worldHeight) {
+            return true;
+        }
+        return corridorHits(x0, y0, x1, y1, margin, true);
+    }
+
+    /**
+     * Returns whether or not a segment passes within a distance of any blocked cell (or only touches that distance, if
+     * the edges of obstacles count), by cutting the segment down to each blocked cell near it, widened by the distance.
+     * @param open Whether only the insides of obstacles count
+     */
+    private boolean corridorHits(double x0, double y0, double x1, double y1, double margin, boolean open) {
+        double minX = Math.min(x0, x1) - margin;
+        double minY = Math.min(y0, y1) - margin;
+        double maxX = Math.max(x0, x1) + margin;
+        double maxY = Math.max(y0, y1) + margin;
+        int fromCol = cellOf(minX);
+        int fromRow = cellOf(minY);
+        int toCol = cellOf(maxX);
+        int toRow = cellOf(maxY);
+
+        // A box starting right on a cell edge touches the cell before it, and one ending right on a cell edge only
+        // touches the cell after it
+        if (!open && (double) fromCol * scaleFactor == minX) {
+            fromCol--;
+        }
+        if (!open && (double) fromRow * scaleFactor == minY) {
+            fromRow--;
+        }
+        if (open && (double) toCol * scaleFactor == maxX) {
+            toCol--;
+        }
+        if (open && (double) toRow * scaleFactor == maxY) {
+            toRow--;
+        }
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                if (!isBlocked(col, row)) {
+                    continue;
+                }
+                double left = (double) col * scaleFactor - margin;
+                double bottom = (double) row * scaleFactor - margin;
+                double right = (double) (col + 1) * scaleFactor + margin;
+                double top = (double) (row + 1) * scaleFactor + margin;
+
+                if (crosses(left, bottom, right, top, x0, y0, x1, y1, open)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not a segment reaches a rectangle (or gets strictly inside of it, if open), by cutting it down
+     * to the part of it (from 0 to 1) that is inside the rectangle on each axis.
+     */
+    private static boolean crosses(double left, double bottom, double right, double top, double x0, double y0,
+            double x1, double y1, boolean open) {
+        double enter = Double.NEGATIVE_INFINITY;
+        double exit = Double.POSITIVE_INFINITY;
+
+        if (x0 == x1) {
+            if (open ? x0 <= left || x0 >= right : x0 < left || x0 > right) {
+                return false;
+            }
+        } else {
+            double a = (left - x0) / (x1 - x0);
+            double b = (right - x0) / (x1 - x0);
+            enter = Math.min(a, b);
+            exit = Math.max(a, b);
+        }
+        if (y0 == y1) {
+            if (open ? y0 <= bottom || y0 >= top : y0 < bottom || y0 > top) {
+                return false;
+            }
+        } else {
+            double a = (bottom - y0) / (y1 - y0);
+            double b = (top - y0) / (y1 - y0);
+            enter = Math.max(enter, Math.min(a, b));
+            exit = Math.min(exit, Math.max(a, b));
+        }
+        return open ? enter < exit && enter < 1 && exit > 0 : enter <= exit && enter <= 1 && exit >= 0;
+    }
+
+    /**
+     * Walk through every map cell the segment passes through (Amanatides-Woo grid traversal), checking each one.
+     * @param open Whether only the insides of obstacles count (see segmentEntersObstacle())
+     * @return true if there is a collision, false otherwise
+     */
+    private boolean walk(double x0, double y0, double x1, double y1, boolean open) {
+        int col = cellOf(x0);
+        int row = cellOf(y0);
+        int endCol = cellOf(x1);
+        int endRow = cellOf(y1);
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int stepCol = dx > 0 ? 1 : -1;
+        int stepRow = dy > 0 ? 1 : -1;
+
+        if (open && hits(col, row, x0, y0, x1, y1, true)) {
+            return true;
+        }
+
+        // A segment running right along a cell edge also touches the cells on the other side of it, like posCollision()
+        // (the walk only goes through the cells to the right of or above the edge)
+        boolean alongCol = !open && dx == 0 && (double) col * scaleFactor == x0;
+        boolean alongRow = !open && dy == 0 && (double) row * scaleFactor == y0;
+
+        // How far along the segment (0 to 1) the next vertical and horizontal cell edges are, and how far apart they
+        // are
+        double tDeltaX = dx == 0 ? Double.POSITIVE_INFINITY : scaleFactor / Math.abs(dx);
+        double tDeltaY = dy == 0 ? Double.POSITIVE_INFINITY : scaleFactor / Math.abs(dy);
+        double tMaxX = dx == 0 ? Double.POSITIVE_INFINITY : ((col + (dx > 0 ? 1 : 0)) * (double) scaleFactor - x0) / dx;
+        double tMaxY = dy == 0 ? Double.POSITIVE_INFINITY : ((row + (dy > 0 ? 1 : 0)) * (double) scaleFactor - y0) / dy;
+        int steps = Math.abs(endCol - col) + Math.abs(endRow - row);
+
+        while (steps > 0) {
+            if (tMaxX < tMaxY) {
+                col += stepCol;
+                tMaxX += tDeltaX;
+                steps--;
+            } else if (tMaxY < tMaxX) {
+                row += stepRow;
+                tMaxY += tDeltaY;
+                steps--;
+            } else {
+                // Passing through a corner touches both of the cells beside it
+                if (hits(col + stepCol, row, x0, y0, x1, y1, open) || hits(col, row + stepRow, x0, y0, x1, y1, open)) {
+                    return true;
+                }
+                col += stepCol;
+                row += stepRow;
+                tMaxX += tDeltaX;
+                tMaxY += tDeltaY;
+                steps -= 2;
+            }
+            if (hits(col, row, x0, y0, x1, y1, open) || (alongCol && hits(col - 1, row, x0, y0, x1, y1, open))
+                    || (alongRow && hits(col, row - 1, x0, y0, x1, y1, open))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether or not a segment that reaches a map cell hits it: the cell has to be blocked and, if only the
+     * insides of obstacles count, some of the segment has to be strictly inside of it.
+     */
+    private boolean hits(int col, int row, double x0, double y0, double x1, double y1, boolean open) {
+        if (!isBlocked(col, row)) {
+            return false;
+        }
+        if (!open) {
+            return true;
+        }
+
+        // Cut the segment down to the part of it that is strictly inside the cell
+        double left = (double) col * scaleFactor;
+        double bottom = (double) row * scaleFactor;
+        return crosses(left, bottom, left + scaleFactor, bottom + scaleFactor, x0, y0, x1, y1, true);
+    }
+
+    /**
+     * Return a lower bound on how far the given point is from the nearest obstacle (including its edges) or the edge of
+     * the world. Anything that moves less than this distance from the point can't hit anything.
+     * @param x The x position
+     * @param y The y position
+     * @return The clearance (0 if the point is in a collision or off of the map)
+     */
+    public double clearance(double x, double y) {
+        if (posCollision(x, y)) {
+            return 0;
+        }
+        float[] field = fieldDistance;
+
+        if (field == null) {
+            synchronized (this) {
+                if (fieldDistance == null) {
+                    fieldDistance = distanceField();
+                }
+                field = fieldDistance;
+            }
+        }
+        double size = (double) scaleFactor / fieldSubdivisions;
+        int col = (int) (x / size);
+        int row = (int) (y / size);
+
+        if (col >= fieldCols || row >= fieldRows) {
+            return 0;
+        }
+
+        // The nearest obstacle is no closer than the nearest blocked field cell's center, less the distances from the
+        // point to the center of the field cell it is in and from that blocked cell's center to its corners
+        double centerX = (col + 0.5) * size;
+        double centerY = (row + 0.5) * size;
+        double offCenter = Math.sqrt(Math.pow(x - centerX, 2) + Math.pow(y - centerY, 2));
+        double obstacle = (field[row * fieldCols + col] - HALF_DIAGONAL) * size - offCenter;
+        double edge = Math.min(Math.min(x, worldWidth - x), Math.min(y, worldHeight - y));
+
+        return Math.max(0, Math.min(obstacle, edge) - CLEARANCE_MARGIN);
+    }
+
+    /**
+     * Return the number of steps (between free cells that touch, diagonals included) from each free cell to the
+     * nearest free cell that overlaps the goal, worked out with a wavefront from the goal the first time it is needed
+     * and then kept (for the last few goals), so every run heading for the same goal shares it.
+     * @param goalX The x position of the goal
+     * @param goalY The y position of the goal
+     * @param radius How close to the goal counts as reaching it
+     * @return The steps for each cell (-1 if the goal can't be reached from it), or null if no free cell overlaps the
+     * goal
+     */
+    public int[] goalSteps(double goalX, double goalY, double radius) {
+        GoalKey key = new GoalKey(goalX, goalY, radius);
+        int[] steps;
+
+        synchronized (goalSteps) {
+            steps = goalSteps.get(key);
+        }
+
+        // Work out the wavefront outside of the lock, so that other goals can be looked up in the meantime
+        if (steps == null) {
+            int[] made = wavefront(goalX, goalY, radius);
+
+            synchronized (goalSteps) {
+                int[] other = goalSteps.putIfAbsent(key, made);
+                steps = other != null ? other : made;
+            }
+        }
+        return steps.length == 0 ? null : steps;
+    }
+
+    /**
+     * Work out the steps from every free cell to the goal with a breadth-first wavefront.
+     */
+    private int[] wavefront(double goalX, double goalY, double radius) {
+        int[] steps = new int[cols * rows];
+        int[] queue = new int[cols * rows];
+        int head = 0;
+        int tail = 0;
+        Arrays.fill(steps, -1);
+
+        // Start from every free cell the goal overlaps
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                double dx = Math.max(0, Math.max(col * scaleFactor - goalX, goalX - (col + 1) * scaleFactor));
+                double dy = Math.max(0, Math.max(row * scaleFactor - goalY, goalY - (row + 1) * scaleFactor));
+
+                if (!isBlocked(col, row) && Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2)) <= radius) {
+                    steps[row * cols + col] = 0;
+                    queue[tail++] = row * cols + col;
+                }
+            }
+        }
+        if (tail == 0) {
+            return new int[0];
+        }
+
+        // Spread out from there
+        while (head < tail) {
+            int cell = queue[head++];
+            int col = cell % cols;
+            int row = cell / cols;
+
+            for (int dRow = -1; dRow <= 1; dRow++) {
+                for (int dCol = -1; dCol <= 1; dCol++) {
+                    int c = col + dCol;
+                    int r = row + dRow;
+
+                    if (c >= 0 && c < cols && r >= 0 && r < rows && !isBlocked(c, r) && steps[r * cols + c] == -1) {
+                        steps[r * cols + c] = steps[cell] + 1;
+                        queue[tail++] = r * cols + c;
+                    }
+                }
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Return a lower bound on the length of any path from the given point to the goal that avoids obstacles. Moving
+     * less than one cell width can only get to a cell next to (or diagonal to) the one the point is in, so a point
+     * that is k steps from the goal is at least (k - 1) cell widths from it.
+     * @param steps The steps to the goal (from goalSteps())
+     * @param x The x position
+     * @param y The y position
+     * @return The distance (infinity if the goal can't be reached from the point)
+     */
+    public double goalDistance(int[] steps, double x, double y) {
+        int col = cellOf(x);
+        int row = cellOf(y);
+
+        if (col < 0 || col >= cols || row < 0 || row >= rows) {
+            return 0;
+        }
+        int k = steps[row * cols + col];
+
+        if (k == -1) {
+            return isBlocked(col, row) ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return Math.max(0, k - 1) * (double) scaleFactor;
+    }
+
+    /**
+     * Return the index of the cell containing the given coordinate, so that cell * scaleFactor <= coord is exact
+     * (division alone can round up right below a cell edge).
+     * @param coord An x or y coordinate
+     * @return The cell index
+     */
+    public int cellOf(double coord) {
+        int cell = (int) (coord / scaleFactor);
+
+        if ((double) cell * scaleFactor > coord) {
+            cell--;
+        } else if ((double) (cell + 1) * scaleFactor <= coord) {
+            cell++;
+        }
+        return cell;
+    }
+
+    /**
+     * Return the blocked spaces of the map. The list is shared by everything using this world, so it must not be
+     * changed.
+     * @return An ArrayList of integer arrays, with each array containing the x and y coordinates of the bottom left
+     * point of each obstacle
+     */
+    public ArrayList<int[]> getBlockedSpaces() {
+        return blockedSpaces;
+    }
+
+    public int getWorldWidth() {
+        return worldWidth;
+    }
+
+    public int getWorldHeight() {
+        return worldHeight;
+    }
+
+    public int getScaleFactor() {
+        return scaleFactor;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * The key a goal's wavefront is kept under.
+     */
+    private static class GoalKey {
+        private final double x;
+        private final double y;
+        private final double radius;
+
+        GoalKey(double x, double y, double radius) {
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Double.hashCode(x) * 31 + Double.hashCode(y)) * 31 + Double.hashCode(radius);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GoalKey)) {
+                return false;
+            }
+            GoalKey k = (GoalKey) o;
+            return x == k.x && y == k.y && radius == k.radius;
+        }
+    }
+
+    /**
+     * The key a compiled world is kept under: the size of the world and the contents of its map.
+     */
+    private static class Key {
+        private final int worldWidth;
+        private final int worldHeight;
+        private final String map;
+
+        Key(int worldWidth, int worldHeight, String map) {
+            this.worldWidth = worldWidth;
+            this.worldHeight = worldHeight;
+            this.map = map;
+        }
+
+        @Override
+        public int hashCode() {
+            return (worldWidth * 31 + worldHeight) * 31 + map.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return worldWidth == k.worldWidth && worldHeight == k.worldHeight && map.equals(k.map);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
+import dirt.Integrator.CollisionMode;
+import dirt.World;
 
 
 /**
@@ -35,6 +37,9 @@ public class RRT {
     int height; //Map height
     int objFactor = 10;
     double stepSlice = 0.05; // The "time" between each state update inside of getBestControl()
+    CollisionMode collisionMode = CollisionMode.POINT; // How getBestControl() checks trajectories for collisions
+    World world; // Compiled map for the swept collision modes and the clearance shortcut
+    boolean clearanceShortcut = false; // Whether getBestControl() skips collision checks far from obstacles
     Random r;
 
     /**
@@ -59,6 +64,33 @@ public class RRT {
         r = new Random(seed);
     }
 
+    /**
+     * Constructor that takes a compiled world (see World.compile()) instead of the map, so the map doesn't have to be
+     * read in again for every run.
+     * @param root The root of the RRT
+     * @param goal The goal of the RRT
+     * @param world The compiled world
+     * @param seed The random seed
+     */
+    public RRT(Vertex root, Vertex goal, World world, long seed) {
+        width = world.getWorldWidth();
+        height = world.getWorldHeight();
+        objFactor = world.getScaleFactor();
+        this.world = world;
+        blockedSpaces = new ArrayList<>();
+
+        // RRT counts its blocked spaces from 1 instead of 0
+        for (int[] space : world.getBlockedSpaces()) {
+            blockedSpaces.add(new int[] {space[0] + 1, space[1] + 1});
+        }
+        this.root = root;
+        points.add(this.root);
+        this.root.parent = null;
+        this.goal = goal;
+        this.goal.parent = null;
+        r = new Random(seed);
+    }
+
     /**
      * A blank contructor, mainly used for testing from the main method of this program file.
      */
@@ -161,6 +193,50 @@ public class RRT {
         return false;
     }
 
+    /**
+     * Set how getBestControl() checks trajectories for collisions. The swept modes walk the map grid along each segment
+     * of the trajectory, so fast controls can't skip over thin walls. Like posCollision(), they only count the insides
+     * of obstacles, so a trajectory can run along the edge of an obstacle in any mode. COARSE checks a widened chord
+     * about every half cell instead of every step, so it catches everything SWEPT does but can also reject controls
+     * that turn close to an obstacle.
+     * @param mode The collision mode
+     */
+    public void setCollisionMode(CollisionMode mode) {
+        collisionMode = mode;
+
+        if (mode != CollisionMode.POINT && world == null) {
+            compileWorld();
+        }
+    }
+
+    /**
+     * Set whether or not getBestControl() skips the collision checks of controls that can't get as far as the nearest
+     * obstacle. The first run on a map to use it works out the map's distance field, which takes a while on big maps,
+     * so it is off unless asked for.
+     * @param clearanceShortcut Boolean
+     */
+    public void setClearanceShortcut(boolean clearanceShortcut) {
+        this.clearanceShortcut = clearanceShortcut;
+
+        if (clearanceShortcut && world == null) {
+            compileWorld();
+        }
+    }
+
+    /**
+     * Compile the map into a World, which the swept collision modes and the clearance shortcut need.
+     */
+    private void compileWorld() {
+        // Split the map back up into rows so that it can be compiled
+        int cols = width / objFactor;
+        StringBuilder rows = new StringBuilder();
+
+        for (int i = 0; i < map.length(); i += cols) {
+            rows.append(map, i, Math.min(i + cols, map.length())).append("\n");
+        }
+        world = World.compile(width, height, rows.toString());
+    }
+
     /**
      * This method just returns a random state on the map that the RRT can aim for, with a 5% chance of that point being
      * the goal.
@@ -251,6 +327,25 @@ public class RRT {
         return controls;
     }
 
+    /**
+     * Returns whether or not a vertex is guaranteed not to hit anything when a control is applied to it, because it is
+     * further from every obstacle than it could possibly travel in that time. Friction only ever slows the vehicle
+     * down, so after n steps it has gone at most n * v0 + a * n(n + 1) / 2.
+     * @param v The vertex
+     * @param acc The acceleration of the control
+     * @param time The time the control is applied for
+     * @return Boolean
+     */
+    private boolean isClear(Vertex v, double acc, double time) {
+        int steps = 0;
+        for (double s = 0; s < time; s += stepSlice) {
+            steps++;
+        }
+        double v0 = Math.sqrt(Math.pow(v.velocity.x, 2) + Math.pow(v.velocity.y, 2));
+        double a = Math.abs(acc) * Math.sqrt(Math.pow(v.direction.x, 2) + Math.pow(v.direction.y, 2));
+        return steps * v0 + a * steps * (steps + 1) / 2.0 < world.clearance(v.position.x, v.position.y);
+    }
+
     /**
      * This method is where a lot of the magic happens. It goes through each of the 6 possible control sets provided to
      * it, calculates where the controls will end up (doing collision checking along the way), and returns the control
@@ -270,13 +365,48 @@ public class RRT {
         double rStep = randomTimeStep();
         for (int i = 0; i < allControlSets.length; i++) {
             Vertex copy = xNear.copyVertex();
+            double lastX = copy.position.x;
+            double lastY = copy.position.y;
+            double length = 0; // Length of the path since the last checked point
+            int unchecked = 0; // Steps since the last checked point
+            boolean clear = clearanceShortcut && isClear(copy, allControlSets[i][0], rStep);
             for (double s = 0; s < rStep; s += stepSlice) {
                 copy.updateDirectionVec(copy.direction, allControlSets[i][1]);
                 copy.updateVelocityVec(copy.velocity, copy.direction, allControlSets[i][0]);
                 copy.updatePositionVec(copy.position, copy.velocity);
-                if (posCollision(copy.position.x, copy.position.y)) {
-                    collision = true;
-                    break;
+                length += Math.sqrt(Math.pow(copy.velocity.x, 2) + Math.pow(copy.velocity.y, 2));
+                unchecked++;
+                if (clear) {
+                    continue; // Too far from any obstacle to hit one during this control
+                } else if (collisionMode == CollisionMode.POINT) {
+                    if (posCollision(copy.position.x, copy.position.y)) {
+                        collision = true;
+                        break;
+                    }
+                } else if (collisionMode == CollisionMode.SWEPT || s + stepSlice >= rStep
+                        || length >= objFactor / 2.0) {
+                    // Sweep the path from the last checked point (every step, or about every half cell for COARSE).
+                    // A single step is a straight line, but over several steps the path can stray from the chord by
+                    // up to sqrt(length^2 - chord^2) / 2, so the chord is widened by that much.
+                    if (unchecked == 1) {
+                        if (world.segmentEntersObstacle(lastX, lastY, copy.position.x, copy.position.y)) {
+                            collision = true;
+                            break;
+                        }
+                    } else {
+                        double chord = Math.sqrt(Math.pow(copy.position.x - lastX, 2)
+                            + Math.pow(copy.position.y - lastY, 2));
+                        double stray = Math.sqrt(Math.max(0, length * length - chord * chord)) / 2;
+
+                        if (world.corridorEntersObstacle(lastX, lastY, copy.position.x, copy.position.y, stray)) {
+                            collision = true;
+                            break;
+                        }
+                    }
+                    lastX = copy.position.x;
+                    lastY = copy.position.y;
+                    length = 0;
+                    unchecked = 0;
                 }
             }
             if (!posCollision(copy.position.x, copy.position.y)) {
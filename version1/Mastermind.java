@@ -6,13 +6,17 @@ import java.math.RoundingMode;
 import java.util.Scanner;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Iterator;
 import java.text.DecimalFormat;
 import ptspSolver.TreePTSP;
 import dirt.DIRT;
 import dirt.DIRT.State;
+import dirt.RandomStreams;
+import dirt.SolveMetrics;
 import dirt.Vector;
+import dirt.World;
 
 /**
  * Program that solves the Physical Traveling Salesman Problem.
@@ -20,6 +24,11 @@ import dirt.Vector;
  * @version 1.5
  */
 public class Mastermind {
+    // Kinds of legs, which get different random number streams even when they share waypoints and a candidate
+    private static final int INITIAL_LEG = 0; // From the start state to the first waypoint
+    private static final int FIRST_LEG = 1; // From a waypoint to the next one, ending at a candidate's heading and velocity
+    private static final int SECOND_LEG = 2; // From the end of a first leg on to the waypoint after
+
     private double maxSpeed;
     private double[] initialDir;
     private double[][] coords;
@@ -30,6 +39,9 @@ public class Mastermind {
     private int iterations;
     private int edgesPerIteration;
     private String worldMap;
+    private World world; // The map, compiled once for every run of DIRT
+    private DIRT warmTree; // Tree from the last run toward the first goal of a leg, reused by the next run from the same root
+    private State warmRoot;
     private String fileName;
     private double runtime;
     private double bestTime;
@@ -42,11 +54,19 @@ public class Mastermind {
     private int successes = 0;
     private int fails = 0;
     private int skippedRuns = 0;
+    private long deadline = 0; // System.nanoTime() value to finish by (0 for no time limit)
+    private boolean multiGoal = false;
+    private RandomStreams streams; // Random number streams for every leg and candidate (null to give every run of DIRT the seed)
+    private int pass; // Number of the current iteration of the main loop
+    private LinkedHashMap<String, SolveMetrics> legMetrics; // Metrics of the runs of DIRT added up per leg (null if not recorded)
 
     /**
      * Given a PTSP file, write a sequence of vehicle controls to a file.
      * @param args Name of PTSP file, node limit for PTSP Solver, iterations for motion planner,
-     * edge candidates per iteration for motion planner
+     * edge candidates per iteration for motion planner, seed, and optionally a time limit in seconds (0 for none),
+     * whether to find the first leg to every heading and velocity with a single multi-goal run of DIRT, whether to
+     * record metrics for every run of DIRT (written to [problem]_metrics.json), and whether to give every leg and
+     * candidate its own random number streams derived from the seed instead of the seed itself
      */
     public static void main(String[] args) {
         new Mastermind(args);
@@ -69,8 +89,27 @@ public class Mastermind {
             edgesPerIteration = Integer.parseInt(args[3]);
             seed = Long.parseLong(args[4]);
 
+            // Split the time limit (if there is one) between the runs of DIRT
+            if (args.length > 5 && Double.parseDouble(args[5]) > 0) {
+                deadline = startTime + (long) (Double.parseDouble(args[5]) * 1e9);
+            }
+
+            // Find the first leg to every heading and velocity with one tree instead of one run each
+            multiGoal = args.length > 6 && Boolean.parseBoolean(args[6]);
+
+            // Record where DIRT spends its time, per leg
+            if (args.length > 7 && Boolean.parseBoolean(args[7])) {
+                legMetrics = new LinkedHashMap<>();
+            }
+
+            // Derive the random numbers of every run of DIRT from the seed and what the run is for
+            if (args.length > 8 && Boolean.parseBoolean(args[8])) {
+                streams = new RandomStreams(seed);
+            }
+
             // Initialize field variables from file
             parseFile(filename);
+            world = World.compile(worldWidth, worldHeight, worldMap);
 
             // Set up to find the best solution from the main loop
             LinkedList<java.awt.Taskbar.State> bestControls = new LinkedList<>();
@@ -86,6 +125,7 @@ public class Mastermind {
 
             // Main loop (loop until time matrix is filled with updated times, and then keep looping and pray to RNGesus)
             for (int i = 0; i < times.length + 1; i++) {
+                pass = i;
                 System.out.println("\nMAIN LOOP ITERATION " + (i + 1) + "\n");
 
                 // Initialize list to hold all controls for the solution to this problem
@@ -119,9 +159,11 @@ public class Mastermind {
                 }
 
                 System.out.println("Running DIRT between start state and first waypoint...");
-                DIRT.goal = new State(new Vector(0, 0), new Vector(0, 0), firstGoalPos);
-                DIRT motionPlanner = new DIRT(root, worldWidth, worldHeight, worldMap, iterations, edgesPerIteration, false, seed);
-                x = motionPlanner.solve();
+                State goal = new State(new Vector(0, 0), new Vector(0, 0), firstGoalPos);
+                DIRT motionPlanner = newPlanner(root, goal, false, INITIAL_LEG, ordering[0], ordering[1], 0);
+                SolveMetrics metrics = watch(motionPlanner);
+                x = motionPlanner.solve(legBudget());
+                addMetrics(ordering[0], ordering[1], metrics);
 
                 if (x == null) {
                     break;
@@ -149,6 +191,20 @@ public class Mastermind {
                     int next = ordering[j + 1];
                     System.out.println("\nRunning DIRT twice from waypoint " + from + " to waypoint " + next + "...");
 
+                    // In multi-goal mode, find the first leg to all of the combinations at once
+                    State[] firstLegs = null;
+
+                    if (multiGoal) {
+                        State[] goals = new State[velRange.length * headings.length];
+
+                        for (int v = 0; v < velRange.length; v++) {
+                            for (int h = 0; h < headings.length; h++) {
+                                goals[v * headings.length + h] = new State(headings[h], velRange[v], firstGoalPos);
+                            }
+                        }
+                        firstLegs = runLegs(root, goals, from, to);
+                    }
+
                     // Try all possible combinations of velocities and headings to hit the first goal at and choose the
                     // one that allows the vehicle to get the the second goal in the fastest time
                     for (int v = 0; v < velRange.length; v++) {
@@ -157,8 +213,8 @@ public class Mastermind {
                             System.out.println("Testing velocity " + velRange[v] + " and heading " + headings[h] + "...");
 
                             // Set up for the next run of DIRT
-                            DIRT.goal = new State(headings[h], velRange[v], firstGoalPos);
-                            x = runLeg(root, true, from, to);
+                            goal = new State(headings[h], velRange[v], firstGoalPos);
+                            x = multiGoal ? firstLegs[v * headings.length + h] : runLeg(root, goal, true, from, to, v * headings.length + h);
                             
                             // If no trajectory was found, skip to the next iteration
                             if (x == null) {
@@ -167,8 +223,8 @@ public class Mastermind {
 
                             // Set up for the next run of DIRT
                             State secondRoot = x.copyState();
-                            DIRT.goal = new State(new Vector(0, 0), new Vector(0, 0), secondGoalPos);
-                            x2 = runLeg(secondRoot, false, to, next);
+                            goal = new State(new Vector(0, 0), new Vector(0, 0), secondGoalPos);
+                            x2 = runLeg(secondRoot, goal, false, to, next, v * headings.length + h);
                             
                             // If no trajectory was found, skip to the next iteration
                             if (x2 == null) {
@@ -292,6 +348,10 @@ public class Mastermind {
             // Write all controls to a file
             DIRT.writeControls(bestControls);
 
+            if (legMetrics != null) {
+                writeMetrics();
+            }
+
             // Make runs more distinguishable by printing DONE and whitespace at the end of execution
             System.out.println("\nDONE\n");
         } else {
@@ -333,13 +393,29 @@ public class Mastermind {
     /**
      * Run a leg of DIRT and cache it or use a previously cached success (or skip based on a previously cached failure).
      */
-    private State runLeg(State root, boolean fullGoalCheck, int start, int end) {
-        DIRT motionPlanner = new DIRT(root, worldWidth, worldHeight, worldMap, iterations, edgesPerIteration, fullGoalCheck, seed);
+    private State runLeg(State root, State goal, boolean fullGoalCheck, int start, int end, int candidate) {
+        DIRT motionPlanner;
+        int leg = fullGoalCheck ? FIRST_LEG : SECOND_LEG; // Only the first leg has to match the candidate's end state
+
+        // Runs from the same root toward the first goal only differ in heading and velocity, so keep growing one tree
+        // (it is only pointed at the new goal if it is going to be solved)
+        boolean warm = fullGoalCheck && root == warmRoot;
+
+        if (warm) {
+            motionPlanner = warmTree;
+        } else {
+            motionPlanner = newPlanner(root, goal, fullGoalCheck, leg, start, end, candidate);
+
+            if (fullGoalCheck) {
+                warmTree = motionPlanner;
+                warmRoot = root;
+            }
+        }
         System.out.println("\nDIRT Run " + (++run) + "/" + totalRuns);
         System.out.println("Running DIRT from waypoint " + start + " to waypoint " + end + "...");
         
         // Generate a hash key based on the current state and goal and see if there's an already-cached trajectory that could work here
-        String key = generateHashKey(start, end, root.direction, root.velocity, DIRT.goal.direction, DIRT.goal.velocity);
+        String key = generateHashKey(start, end, root.direction, root.velocity, goal.direction, goal.velocity);
         LinkedList<State> legs = cacheSuccess.get(key);
         Integer fail = cacheFailure.get(key);
         State x = null;
@@ -349,7 +425,7 @@ public class Mastermind {
             Iterator<State> it = legs.iterator();
             
             while (it.hasNext()) {
-                State legTest = motionPlanner.testLeg(it.next());
+                State legTest = motionPlanner.testLeg(it.next(), goal, fullGoalCheck);
                 legTests++;
 
                 // Set x to be the best of the successful leg tests
@@ -365,8 +441,19 @@ public class Mastermind {
 
         // If there was no cached trajectory that fits the situation or it failed, run DIRT
         if (x == null) {
+            // Point the reused tree at this goal, drawing the random numbers this candidate would have had on its own
+            if (warm) {
+                motionPlanner.retarget(goal, fullGoalCheck);
+
+                if (streams != null) {
+                    motionPlanner.setRandomStreams(candidateStreams(leg, start, end, candidate));
+                }
+            }
+
             // Go to the next waypoint, caring only about position
-            x = motionPlanner.solve();
+            SolveMetrics metrics = watch(motionPlanner);
+            x = motionPlanner.solve(legBudget());
+            addMetrics(start, end, metrics);
 
             // If DIRT found a successful trajectory, cache it
             if (x != null) {
@@ -391,6 +478,124 @@ public class Mastermind {
         return x;
     }
 
+    /**
+     * Run DIRT once from a root to several goals at once (see DIRT.solveAll()), counting it as one run per goal.
+     */
+    private State[] runLegs(State root, State[] goals, int start, int end) {
+        DIRT motionPlanner = newPlanner(root, goals[0], true, FIRST_LEG, start, end, -1);
+        System.out.println("\nDIRT Runs " + (run + 1) + "-" + (run + goals.length) + "/" + totalRuns);
+        System.out.println("Running DIRT from waypoint " + start + " to waypoint " + end + " for " + goals.length + " goals...");
+        run += goals.length;
+        SolveMetrics metrics = watch(motionPlanner);
+        State[] legs = motionPlanner.solveAll(goals, true, legBudget(goals.length));
+        addMetrics(start, end, metrics);
+
+        for (State x : legs) {
+            if (x != null) {
+                successes++;
+            } else {
+                fails++;
+            }
+        }
+        return legs;
+    }
+
+    /**
+     * Make a run of DIRT for a leg, seeded with the seed or with the random number streams of the leg and candidate.
+     * @param leg The kind of leg (INITIAL_LEG, FIRST_LEG or SECOND_LEG)
+     * @param candidate The number of the heading and velocity being tried at the end of the leg (-1 for all of them)
+     */
+    private DIRT newPlanner(State root, State goal, boolean fullGoalCheck, int leg, int start, int end, int candidate) {
+        if (streams == null) {
+            return new DIRT(root, goal, world, iterations, edgesPerIteration, fullGoalCheck, seed);
+        }
+        return new DIRT(root, goal, world, iterations, edgesPerIteration, fullGoalCheck,
+            candidateStreams(leg, start, end, candidate));
+    }
+
+    /**
+     * Return the random number streams of a leg and candidate.
+     * @param leg The kind of leg (INITIAL_LEG, FIRST_LEG or SECOND_LEG)
+     * @param candidate The number of the heading and velocity being tried at the end of the leg (-1 for all of them)
+     */
+    private RandomStreams candidateStreams(int leg, int start, int end, int candidate) {
+        return streams.child(pass).child(leg).child(start).child(end).child(candidate);
+    }
+
+    /**
+     * Give a run of DIRT its own metrics to record into, if metrics are being recorded.
+     * @param motionPlanner The run of DIRT
+     * @return The metrics (null if they aren't being recorded)
+     */
+    private SolveMetrics watch(DIRT motionPlanner) {
+        SolveMetrics metrics = legMetrics == null ? null : new SolveMetrics();
+        motionPlanner.setMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * Add the metrics of a run of DIRT to the totals for its leg.
+     * @param start The waypoint the leg starts from
+     * @param end The waypoint the leg goes to
+     * @param metrics The metrics of the run (null if they aren't being recorded)
+     */
+    private void addMetrics(int start, int end, SolveMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        String leg = start + "-" + end;
+        SolveMetrics total = legMetrics.get(leg);
+
+        if (total == null) {
+            total = new SolveMetrics();
+            legMetrics.put(leg, total);
+        }
+        total.add(metrics);
+        System.out.println("Metrics: " + metrics.toJson());
+    }
+
+    /**
+     * Write the metrics of every leg to a JSON file, as an object with a member for each leg (Ex. "0-1").
+     */
+    private void writeMetrics() {
+        try {
+            FileWriter data = new FileWriter(fileName + "_metrics.json");
+            data.write("{");
+            boolean first = true;
+
+            for (String leg : legMetrics.keySet()) {
+                data.write((first ? "" : ",") + "\n\"" + leg + "\":" + legMetrics.get(leg).toJson());
+                first = false;
+            }
+            data.write("\n}\n");
+            data.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Return the time the next run of DIRT gets: the time that is left split evenly between the runs that are left.
+     * @return The time budget in nanoseconds (0 for no limit)
+     */
+    private long legBudget() {
+        return legBudget(1);
+    }
+
+    /**
+     * Return the time the next few runs of DIRT get together (Ex. the runs one solveAll() counts as), once they have
+     * been counted in run.
+     * @param runs The number of runs
+     * @return The time budget in nanoseconds (0 for no limit)
+     */
+    private long legBudget(int runs) {
+        if (deadline == 0) {
+            return 0;
+        }
+        long left = deadline - System.nanoTime();
+        return Math.max(1, left * runs / Math.max(1, totalRuns - run + runs));
+    }
+
     /**
      * Generates a key for the hash map using the given parameter values. -------------------------------------------------------------
      */